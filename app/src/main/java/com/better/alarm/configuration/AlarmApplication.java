@@ -17,7 +17,11 @@ package com.better.alarm.configuration;
 
 import android.app.AlarmManager;
 import android.app.Application;
+import android.content.Context;
 import android.content.SharedPreferences;
+import android.database.sqlite.SQLiteDatabase;
+import android.os.Looper;
+import android.os.PowerManager;
 import android.preference.PreferenceManager;
 import android.view.ViewConfiguration;
 
@@ -36,11 +40,25 @@ import com.better.alarm.model.AlarmSetter;
 import com.better.alarm.model.AlarmStateNotifier;
 import com.better.alarm.model.AlarmValue;
 import com.better.alarm.model.Alarms;
+import com.better.alarm.model.AlarmsForecast;
 import com.better.alarm.model.AlarmsScheduler;
+import com.better.alarm.model.BatchingHandlerFactory;
 import com.better.alarm.model.Calendars;
+import com.better.alarm.model.EventLoopHandlerFactory;
+import com.better.alarm.model.HeapAlarmQueue;
 import com.better.alarm.model.ImmediateHandlerFactory;
+import com.better.alarm.model.ModelThread;
+import com.better.alarm.model.SchedulerSnapshot;
+import com.better.alarm.model.TimingWheelAlarmQueue;
+import com.better.alarm.persistance.AlarmDatabaseHelper;
+import com.better.alarm.persistance.AlarmJournal;
+import com.better.alarm.persistance.AlarmStorage;
+import com.better.alarm.persistance.Columns;
+import com.better.alarm.persistance.ContentResolverAlarmStorage;
 import com.better.alarm.persistance.DatabaseQuery;
+import com.better.alarm.persistance.IdAllocator;
 import com.better.alarm.persistance.PersistingContainerFactory;
+import com.better.alarm.persistance.SQLiteAlarmStorage;
 import com.better.alarm.presenter.DynamicThemeHandler;
 import com.better.alarm.presenter.ScheduledReceiver;
 import com.better.alarm.presenter.ToastPresenter;
@@ -54,6 +72,7 @@ import org.acra.ExceptionHandlerInitializer;
 import org.acra.ReportField;
 import org.acra.annotation.ReportsCrashes;
 
+import java.io.File;
 import java.lang.reflect.Field;
 import java.util.ArrayList;
 import java.util.Calendar;
@@ -63,12 +82,16 @@ import io.reactivex.Maybe;
 import io.reactivex.MaybeEmitter;
 import io.reactivex.MaybeOnSubscribe;
 import io.reactivex.Single;
+import io.reactivex.android.schedulers.AndroidSchedulers;
 import io.reactivex.annotations.NonNull;
 import io.reactivex.functions.Consumer;
 import io.reactivex.functions.Function;
+import io.reactivex.schedulers.Schedulers;
 import io.reactivex.subjects.BehaviorSubject;
 import io.reactivex.subjects.PublishSubject;
 import kotlin.collections.CollectionsKt;
+import kotlin.Unit;
+import kotlin.jvm.functions.Function0;
 
 @ReportsCrashes(
         mailTo = BuildConfig.ACRA_EMAIL,
@@ -180,10 +203,76 @@ public class AlarmApplication extends Application {
             }
         };
 
-        AlarmsScheduler alarmsScheduler = new AlarmsScheduler(setter, logger, store, prefs, calendars);
+        SchedulerSnapshot snapshot = new SchedulerSnapshot(new File(getFilesDir(), "scheduler.snapshot"), logger, Schedulers.single());
+        final AlarmsScheduler alarmsScheduler = new AlarmsScheduler(setter, logger, store, prefs, calendars,
+                getResources().getBoolean(R.bool.config_timingWheelScheduler) ? new TimingWheelAlarmQueue() : new HeapAlarmQueue(),
+                getResources().getInteger(R.integer.config_rtcSlots),
+                snapshot);
         AlarmCore.IStateNotifier broadcaster = new AlarmStateNotifier(store);
-        HandlerFactory handlerFactory = new ImmediateHandlerFactory();
-        PersistingContainerFactory containerFactory = new PersistingContainerFactory(calendars, getApplicationContext());
+        // receivers and presenters run on the main thread and presenters subscribe to the store there, so it is the model thread
+        ModelThread modelThread = new ModelThread(AndroidSchedulers.mainThread(), new Function0<Boolean>() {
+            @Override
+            public Boolean invoke() {
+                return Looper.myLooper() == Looper.getMainLooper();
+            }
+        });
+        final AlarmStorage storage;
+        if (getResources().getBoolean(R.bool.config_directDatabaseWrites)) {
+            final AlarmDatabaseHelper databaseHelper = AlarmDatabaseHelper.getInstance(getApplicationContext(), logger);
+            storage = new SQLiteAlarmStorage(
+                    new Function0<SQLiteDatabase>() {
+                        @Override
+                        public SQLiteDatabase invoke() {
+                            return databaseHelper.getWritableDatabase();
+                        }
+                    },
+                    new Function0<Unit>() {
+                        @Override
+                        public Unit invoke() {
+                            getContentResolver().notifyChange(Columns.contentUri(), null);
+                            return Unit.INSTANCE;
+                        }
+                    });
+        } else {
+            storage = new ContentResolverAlarmStorage(getApplicationContext());
+        }
+        IdAllocator ids = new IdAllocator(new File(getFilesDir(), "alarms.ids"), logger, new Function0<Integer>() {
+            @Override
+            public Integer invoke() {
+                return storage.maxId();
+            }
+        });
+        AlarmJournal journal = new AlarmJournal(new File(getFilesDir(), "alarms.journal"));
+        PersistingContainerFactory containerFactory = new PersistingContainerFactory(calendars, storage, ids,
+                getResources().getBoolean(R.bool.config_alarmJournal) ? journal : null);
+        // changes which have only been journaled so far must be in the database before it is queried, also if the
+        // journal has been switched off since
+        try {
+            containerFactory.replayJournal(journal);
+        } catch (Exception e) {
+            // a broken journal must not keep the app from starting, the alarms are loaded as they are in the database
+            logger.e("Failed to replay the alarm journal, dropping it", e);
+            journal.clear();
+        }
+        final HandlerFactory handlerFactory;
+        if (getResources().getBoolean(R.bool.config_eventLoopHandler)) {
+            final PowerManager.WakeLock wakeLock = ((PowerManager) getSystemService(Context.POWER_SERVICE))
+                    .newWakeLock(PowerManager.PARTIAL_WAKE_LOCK, "SimpleAlarmClock:EventLoop");
+            wakeLock.setReferenceCounted(false);
+            handlerFactory = new EventLoopHandlerFactory(modelThread, alarmsScheduler, containerFactory, new EventLoopHandlerFactory.WakeLock() {
+                @Override
+                public void acquire() {
+                    wakeLock.acquire();
+                }
+
+                @Override
+                public void release() {
+                    wakeLock.release();
+                }
+            });
+        } else {
+            handlerFactory = new BatchingHandlerFactory(new ImmediateHandlerFactory(), alarmsScheduler, containerFactory);
+        }
         Alarms alarms = new Alarms(alarmsScheduler, new DatabaseQuery(getContentResolver(), containerFactory), new AlarmCoreFactory(logger,
                 alarmsScheduler,
                 broadcaster,
@@ -193,7 +282,9 @@ public class AlarmApplication extends Application {
                 calendars
         ),
                 containerFactory,
-                logger);
+                logger,
+                modelThread,
+                prefs);
 
         sContainer = new Container(
                 getApplicationContext(),
@@ -202,7 +293,9 @@ public class AlarmApplication extends Application {
                 rxPreferences,
                 prefs,
                 store,
-                alarms);
+                alarms,
+                modelThread,
+                new AlarmsForecast(prefs, calendars));
 
         // must be after sContainer
         PreferenceManager.setDefaultValues(this, R.xml.preferences, false);
@@ -213,10 +306,15 @@ public class AlarmApplication extends Application {
         new BackgroundNotifications();
 
         // must be started the last, because otherwise we may loose intents from it.
+        // Alarms which are due have probably woken up the process, these are started first
         logger.d("Starting alarms");
-        alarms.start();
-        // start scheduling alarms after all alarms have been started
-        alarmsScheduler.start();
+        alarms.start(snapshot.dueIds(calendars.now().getTimeInMillis()), AndroidSchedulers.mainThread(), new Runnable() {
+            @Override
+            public void run() {
+                // start scheduling alarms after all alarms have been started
+                alarmsScheduler.start();
+            }
+        });
         // register logging after startup has finished to avoid logging( O(n) instead of O(n log n) )
         store.alarms()
                 .distinctUntilChanged()
@@ -7,9 +7,11 @@ import android.media.AudioManager
 import android.os.PowerManager
 import android.os.Vibrator
 import android.telephony.TelephonyManager
+import com.better.alarm.interfaces.IAlarmsForecast
 import com.better.alarm.interfaces.IAlarmsManager
 import com.better.alarm.logger.Logger
 import com.better.alarm.model.Alarms
+import com.better.alarm.model.ModelThread
 import com.better.alarm.wakelock.WakeLockManager
 import com.f2prateek.rx.preferences2.RxSharedPreferences
 
@@ -23,7 +25,9 @@ data class Container(
         val rxPrefs: RxSharedPreferences,
         val prefs: Prefs,
         val store: Store,
-        val rawAlarms: Alarms) {
+        val rawAlarms: Alarms,
+        val modelThread: ModelThread,
+        val forecast: IAlarmsForecast) {
     private val wlm: WakeLockManager = WakeLockManager(logger(), powerManager())
 
     fun context(): Context = context
@@ -40,10 +44,15 @@ data class Container(
 
     fun rawAlarms(): Alarms = rawAlarms
 
+    /** Model must only be accessed on this thread */
+    fun modelThread(): ModelThread = modelThread
+
     fun alarms(): IAlarmsManager {
         return rawAlarms()
     }
 
+    fun forecast(): IAlarmsForecast = forecast
+
     fun wakeLocks(): WakeLockManager {
         return wlm
     }
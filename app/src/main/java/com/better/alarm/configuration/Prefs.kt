@@ -3,6 +3,7 @@ package com.better.alarm.configuration
 import com.better.alarm.lollipop
 import io.reactivex.Observable
 import io.reactivex.Single
+import io.reactivex.functions.Function3
 
 /**
  * Created by Yuriy on 10.06.2017.
@@ -19,6 +20,30 @@ data class Prefs(
         val listRowLayout: Observable<String>,
         val autoSilence: Observable<Int>) {
 
+    /** Already parsed values of the preferences which are used by the model */
+    data class Snapshot(
+            val preAlarmDuration: Int,
+            val snoozeDuration: Int,
+            val autoSilence: Int)
+
+    @Volatile
+    private var snapshot: Snapshot? = null
+
+    init {
+        // subscribed before anyone else, so that subscribers of the preferences already see the new snapshot
+        Observable
+                .combineLatest(preAlarmDuration, snoozeDuration, autoSilence, Function3 { preAlarm: Int, snooze: Int, silence: Int ->
+                    Snapshot(preAlarmDuration = preAlarm, snoozeDuration = snooze, autoSilence = silence)
+                })
+                .subscribe { snapshot = it }
+    }
+
+    /**
+     * Kept up to date by one subscription, reading it in state transitions neither subscribes nor blocks.
+     */
+    fun snapshot(): Snapshot = checkNotNull(snapshot) { "Preferences have not emitted yet" }
+
+
     fun is24HoutFormat(): Single<Boolean> = _is24HoutFormat
     fun preAlarmDuration(): Observable<Int> = preAlarmDuration
     fun snoozeDuration(): Observable<Int> = snoozeDuration
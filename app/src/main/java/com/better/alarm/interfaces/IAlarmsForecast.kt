@@ -0,0 +1,23 @@
+package com.better.alarm.interfaces
+
+import com.better.alarm.model.AlarmValue
+import com.better.alarm.model.CalendarType
+
+/**
+ * Read-only view of when alarms are going to fire. Occurrences are calculated from [AlarmValue]s, state machines
+ * are not involved, so snoozed or fired alarms are forecast as if they were set.
+ */
+interface IAlarmsForecast {
+    data class Occurrence(val id: Int, val type: CalendarType, val millis: Long)
+
+    /**
+     * Lazily calculated occurrences of the [alarm] from [from] on, earliest first. Use [Sequence.take] for the
+     * next N occurrences. Empty if the alarm is disabled.
+     */
+    fun occurrences(alarm: AlarmValue, from: Long): Sequence<Occurrence>
+
+    /**
+     * Lazily calculated occurrences of all enabled [alarms] in [from] until [to] (exclusive), earliest first.
+     */
+    fun occurrences(alarms: List<AlarmValue>, from: Long, to: Long): Sequence<Occurrence>
+}
@@ -76,6 +76,40 @@ class AlarmActiveRecord(
     fun valuesDiffer(other: AlarmActiveRecord): Boolean {
         return alarmValue != other.alarmValue || nextTime != other.nextTime || state != other.state
     }
+
+    /**
+     * @return bits of the fields which differ from [previous], which is usually the last persisted version, or
+     * [ALL_FIELDS] if there is none
+     */
+    fun changedFields(previous: AlarmActiveRecord?): Int {
+        if (previous == null) return ALL_FIELDS
+        var fields = 0
+        if (previous.isEnabled != isEnabled) fields = fields or ENABLED
+        if (previous.hour != hour) fields = fields or HOUR
+        if (previous.minutes != minutes) fields = fields or MINUTES
+        if (previous.daysOfWeek != daysOfWeek) fields = fields or DAYS_OF_WEEK
+        if (previous.isVibrate != isVibrate) fields = fields or VIBRATE
+        if (previous.isPrealarm != isPrealarm) fields = fields or PREALARM
+        if (previous.label != label) fields = fields or LABEL
+        if (previous.alarmtone.persistedString != alarmtone.persistedString) fields = fields or ALERT
+        if (previous.nextTime.timeInMillis != nextTime.timeInMillis) fields = fields or NEXT_TIME
+        if (previous.state != state) fields = fields or STATE
+        return fields
+    }
+
+    companion object {
+        const val ENABLED = 1
+        const val HOUR = 1 shl 1
+        const val MINUTES = 1 shl 2
+        const val DAYS_OF_WEEK = 1 shl 3
+        const val VIBRATE = 1 shl 4
+        const val PREALARM = 1 shl 5
+        const val LABEL = 1 shl 6
+        const val ALERT = 1 shl 7
+        const val NEXT_TIME = 1 shl 8
+        const val STATE = 1 shl 9
+        const val ALL_FIELDS = (1 shl 10) - 1
+    }
 }
 
 data class AlarmData(
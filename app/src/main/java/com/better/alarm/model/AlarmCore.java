@@ -39,7 +39,6 @@ import java.util.Calendar;
 import java.util.List;
 import java.util.Locale;
 
-import io.reactivex.Observable;
 import io.reactivex.annotations.NonNull;
 import io.reactivex.functions.Consumer;
 import kotlin.jvm.functions.Function1;
@@ -100,6 +99,11 @@ import kotlin.jvm.functions.Function1;
  * @author Yuriy
  */
 public final class AlarmCore implements Alarm, Consumer<AlarmValue> {
+    /**
+     * Obj of a SNOOZE message which carries the time to snooze to in arg1 and arg2
+     */
+    private static final Object CUSTOM_SNOOZE = new Object();
+
     private final IAlarmsScheduler mAlarmsScheduler;
     private final Logger log;
     private final IStateNotifier broadcaster;
@@ -107,9 +111,7 @@ public final class AlarmCore implements Alarm, Consumer<AlarmValue> {
     private final AlarmStateMachine stateMachine;
     private final DateFormat df;
 
-    private final Observable<Integer> preAlarmDuration;
-    private final Observable<Integer> snoozeDuration;
-    private final Observable<Integer> autoSilence;
+    private final Prefs prefs;
 
     private final Store store;
     private final Calendars calendars;
@@ -122,22 +124,11 @@ public final class AlarmCore implements Alarm, Consumer<AlarmValue> {
         this.broadcaster = broadcaster;
         this.df = new SimpleDateFormat("dd-MM-yy HH:mm:ss", Locale.GERMANY);
 
-        this.preAlarmDuration = prefs.preAlarmDuration();
-        this.snoozeDuration = prefs.snoozeDuration();
-        this.autoSilence = prefs.autoSilence();
+        this.prefs = prefs;
 
         this.store = store;
 
         stateMachine = new AlarmStateMachine(container.getState(), "Alarm " + container.getId(), handlerFactory);
-
-        preAlarmDuration
-                .skip(1)// not interested in the first update on startup
-                .subscribe(new Consumer() {
-                    @Override
-                    public void accept(Object o) throws Exception {
-                        stateMachine.sendMessage(AlarmStateMachine.PREALARM_DURATION_CHANGED);
-                    }
-                });
     }
 
     public void start() {
@@ -295,7 +286,7 @@ public final class AlarmCore implements Alarm, Consumer<AlarmValue> {
             @Override
             public void performComplexTransition() {
                 if (container.getDaysOfWeek().isRepeatSet()) {
-                    if (container.isPrealarm() && preAlarmDuration.blockingFirst() != -1) {
+                    if (container.isPrealarm() && prefs.snapshot().getPreAlarmDuration() != -1) {
                         transitionTo(preAlarmSet);
                     } else {
                         transitionTo(normalSet);
@@ -318,7 +309,7 @@ public final class AlarmCore implements Alarm, Consumer<AlarmValue> {
             @Override
             public void performComplexTransition() {
                 Calendar preAlarm = calculateNextTime();
-                Integer preAlarmMinutes = preAlarmDuration.blockingFirst();
+                int preAlarmMinutes = prefs.snapshot().getPreAlarmDuration();
                 preAlarm.add(Calendar.MINUTE, -1 * preAlarmMinutes);
                 if (container.isPrealarm() && preAlarm.after(calendars.now()) && preAlarmMinutes != -1) {
                     transitionTo(preAlarmSet);
@@ -421,7 +412,7 @@ public final class AlarmCore implements Alarm, Consumer<AlarmValue> {
                     @Override
                     public void resume() {
                         Calendar c = calculateNextTime();
-                        c.add(Calendar.MINUTE, -1 * preAlarmDuration.blockingFirst());
+                        c.add(Calendar.MINUTE, -1 * prefs.snapshot().getPreAlarmDuration());
                         // since prealarm is before main alarm, it can be already in the
                         // past, so it has to be adjusted.
                         advanceCalendar(c);
@@ -465,7 +456,7 @@ public final class AlarmCore implements Alarm, Consumer<AlarmValue> {
                 @Override
                 public void enter() {
                     broadcastAlarmState(Intents.ALARM_ALERT_ACTION);
-                    int autoSilenceMinutes = autoSilence.blockingFirst();
+                    int autoSilenceMinutes = prefs.snapshot().getAutoSilence();
                     if (autoSilenceMinutes > 0) {
                         // -1 means OFF
                         Calendar nextTime = calendars.now();
@@ -507,7 +498,7 @@ public final class AlarmCore implements Alarm, Consumer<AlarmValue> {
 
                 @Override
                 protected void onSnooze() {
-                    if (getCurrentMessage().obj().isPresent()) {
+                    if (getCurrentMessage().obj() == CUSTOM_SNOOZE) {
                         //snooze to time with prealarm -> go to snoozed
                         transitionTo(snoozed);
                     } else {
@@ -532,11 +523,11 @@ public final class AlarmCore implements Alarm, Consumer<AlarmValue> {
                 public void enter() {
                     Calendar now = calendars.now();
                     Message reason = getCurrentMessage();
-                    if (reason.obj().isPresent()) {
+                    if (reason.obj() == CUSTOM_SNOOZE) {
                         Calendar customTime = calendars.now();
                         //TODO pass an object, dont misuse these poor args
-                        customTime.set(Calendar.HOUR_OF_DAY, reason.arg1().get());
-                        customTime.set(Calendar.MINUTE, reason.arg2().get());
+                        customTime.set(Calendar.HOUR_OF_DAY, reason.arg1());
+                        customTime.set(Calendar.MINUTE, reason.arg2());
                         if (customTime.after(now)) {
                             nextTime = customTime;
                         } else {
@@ -563,7 +554,7 @@ public final class AlarmCore implements Alarm, Consumer<AlarmValue> {
 
                 private Calendar getNextRegualarSnoozeCalendar() {
                     Calendar nextTime = calendars.now();
-                    int snoozeMinutes = snoozeDuration.blockingFirst();
+                    int snoozeMinutes = prefs.snapshot().getSnoozeDuration();
                     nextTime.add(Calendar.MINUTE, snoozeMinutes);
                     return nextTime;
                 }
@@ -655,24 +646,16 @@ public final class AlarmCore implements Alarm, Consumer<AlarmValue> {
 
         private Calendar calculateNextTime() {
             Calendar c = calendars.now();
-            c.set(Calendar.HOUR_OF_DAY, container.getHour());
-            c.set(Calendar.MINUTE, container.getMinutes());
-            c.set(Calendar.SECOND, 0);
-            c.set(Calendar.MILLISECOND, 0);
-            advanceCalendar(c);
+            c.setTimeInMillis(NextOccurrence.nextTime(c.getTimeInMillis(), c.getTimeZone(),
+                    container.getHour(), container.getMinutes(), container.getDaysOfWeek().getCoded()));
             return c;
         }
 
         private void advanceCalendar(Calendar calendar) {
-            Calendar now = calendars.now();
             // if alarm is behind current time, advance one day
-            if (calendar.before(now)) {
-                calendar.add(Calendar.DAY_OF_YEAR, 1);
-            }
-            int addDays = container.getDaysOfWeek().getNextAlarm(calendar);
-            if (addDays > 0) {
-                calendar.add(Calendar.DAY_OF_WEEK, addDays);
-            }
+            long now = calendars.now().getTimeInMillis();
+            calendar.setTimeInMillis(NextOccurrence.advance(calendar.getTimeInMillis(), now, calendar.getTimeZone(),
+                    container.getDaysOfWeek().getCoded()));
         }
 
         private State stringToState(String initialState) {
@@ -688,7 +671,7 @@ public final class AlarmCore implements Alarm, Consumer<AlarmValue> {
         }
 
         private boolean alarmWillBeRescheduled(Message reason) {
-            boolean alarmWillBeRescheduled = reason.what() == CHANGE && ((AlarmValue) reason.obj().get()).isEnabled();
+            boolean alarmWillBeRescheduled = reason.what() == CHANGE && ((AlarmValue) reason.obj()).isEnabled();
             return alarmWillBeRescheduled;
         }
 
@@ -712,7 +695,7 @@ public final class AlarmCore implements Alarm, Consumer<AlarmValue> {
                         onDismiss();
                         break;
                     case CHANGE:
-                        onChange((AlarmValue) msg.obj().get());
+                        onChange((AlarmValue) msg.obj());
                         break;
                     case FIRED:
                         onFired();
@@ -812,6 +795,10 @@ public final class AlarmCore implements Alarm, Consumer<AlarmValue> {
         stateMachine.sendMessage(AlarmStateMachine.TIME_SET);
     }
 
+    public void onPreAlarmDurationChanged() {
+        stateMachine.sendMessage(AlarmStateMachine.PREALARM_DURATION_CHANGED);
+    }
+
     public void change(AlarmValue data) {
         stateMachine.obtainMessage(AlarmStateMachine.CHANGE)
                 .withObj(data)
@@ -833,8 +820,7 @@ public final class AlarmCore implements Alarm, Consumer<AlarmValue> {
         stateMachine.obtainMessage(AlarmStateMachine.SNOOZE)
                 .withArg1(hourOfDay)
                 .withArg2(minute)
-                //This is a marker, sick stuff
-                .withObj(new Object())
+                .withObj(CUSTOM_SNOOZE)
                 .send();
     }
 
@@ -16,11 +16,16 @@ import java.util.*
 
 interface AlarmSetter {
 
-    fun removeRTCAlarm()
+    /**
+     * RTC alarms are programmed in slots, every slot has its own [PendingIntent]. Slots are numbered from 0
+     * to the number of slots used by [AlarmsScheduler] - 1.
+     */
+    fun removeRTCAlarm(slot: Int)
 
-    fun setUpRTCAlarm(id: Int, typeName: String, calendar: Calendar)
+    fun setUpRTCAlarm(slot: Int, id: Int, typeName: String, calendar: Calendar)
 
-    fun fireNow(id: Int, typeName: String)
+    /** Fires all given alarms with one broadcast, in the given order */
+    fun fireNow(ids: IntArray, typeNames: Array<String>)
 
     class AlarmSetterImpl(private val log: Logger, private val am: AlarmManager, private val mContext: Context) : AlarmSetter {
         private val setAlarmStrategy: ISetAlarmStrategy
@@ -29,11 +34,11 @@ interface AlarmSetter {
             this.setAlarmStrategy = initSetStrategyForVersion()
         }
 
-        override fun removeRTCAlarm() {
-            log.d("Removed all alarms")
+        override fun removeRTCAlarm(slot: Int) {
+            log.d("Removed alarm in slot $slot")
             val pendingAlarm = PendingIntent.getBroadcast(
                     mContext,
-                    pendingAlarmRequestCode,
+                    pendingAlarmRequestCode + slot,
                     Intent(ACTION_FIRED).apply {
                         // must be here, otherwise replace does not work
                         setClass(mContext, AlarmsReceiver::class.java)
@@ -43,23 +48,23 @@ interface AlarmSetter {
             am.cancel(pendingAlarm)
         }
 
-        override fun setUpRTCAlarm(id: Int, typeName: String, calendar: Calendar) {
-            log.d("Set $id ($typeName) on ${AlarmsScheduler.DATE_FORMAT.format(calendar.time)}")
+        override fun setUpRTCAlarm(slot: Int, id: Int, typeName: String, calendar: Calendar) {
+            log.d("Set $id ($typeName) on ${AlarmsScheduler.DATE_FORMAT.format(calendar.time)} in slot $slot")
             val pendingAlarm = Intent(ACTION_FIRED)
                     .apply {
                         setClass(mContext, AlarmsReceiver::class.java)
                         putExtra(EXTRA_ID, id)
                         putExtra(EXTRA_TYPE, typeName)
                     }
-                    .let { PendingIntent.getBroadcast(mContext, pendingAlarmRequestCode, it, PendingIntent.FLAG_UPDATE_CURRENT) }
+                    .let { PendingIntent.getBroadcast(mContext, pendingAlarmRequestCode + slot, it, PendingIntent.FLAG_UPDATE_CURRENT) }
 
             setAlarmStrategy.setRTCAlarm(calendar, pendingAlarm)
         }
 
-        override fun fireNow(id: Int, typeName: String) {
+        override fun fireNow(ids: IntArray, typeNames: Array<String>) {
             val intent = Intent(ACTION_FIRED).apply {
-                putExtra(EXTRA_ID, id)
-                putExtra(EXTRA_TYPE, typeName)
+                putExtra(EXTRA_IDS, ids)
+                putExtra(EXTRA_TYPES, typeNames)
             }
             mContext.sendBroadcast(intent)
         }
@@ -113,6 +118,7 @@ interface AlarmSetter {
         }
 
         companion object {
+            /** Request code of slot 0, slot n uses pendingAlarmRequestCode + n */
             private val pendingAlarmRequestCode = 0
         }
     }
@@ -121,5 +127,7 @@ interface AlarmSetter {
         const val ACTION_FIRED = AlarmsScheduler.ACTION_FIRED
         const val EXTRA_ID = AlarmsScheduler.EXTRA_ID
         const val EXTRA_TYPE = AlarmsScheduler.EXTRA_TYPE
+        const val EXTRA_IDS = AlarmsScheduler.EXTRA_IDS
+        const val EXTRA_TYPES = AlarmsScheduler.EXTRA_TYPES
     }
 }
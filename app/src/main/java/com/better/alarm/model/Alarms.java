@@ -19,16 +19,24 @@ import android.annotation.SuppressLint;
 import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
 
+import com.better.alarm.configuration.Prefs;
 import com.better.alarm.interfaces.Alarm;
 import com.better.alarm.interfaces.IAlarmsManager;
 import com.better.alarm.logger.Logger;
 import com.better.alarm.persistance.DatabaseQuery;
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 
+import io.reactivex.Scheduler;
+import io.reactivex.Single;
 import io.reactivex.functions.Consumer;
+import io.reactivex.schedulers.Schedulers;
 
 /**
  * The Alarms implements application domain logic
@@ -42,45 +50,166 @@ public class Alarms implements IAlarmsManager {
     private final AlarmCoreFactory factory;
     private final ContainerFactory containerFactory;
     private final Logger logger;
+    private final ModelThread modelThread;
+    private final List<AlarmActiveRecord> notStarted;
+    /** Not null until all alarms have been started */
+    private Runnable onStarted;
+    /** Query of the alarms which have not been loaded yet, see {@link #start(Collection, Scheduler, Runnable)} */
+    private Single<List<AlarmActiveRecord>> notLoaded;
 
-    public Alarms(IAlarmsScheduler alarmsScheduler, DatabaseQuery query, final AlarmCoreFactory factory, ContainerFactory containerFactory, Logger logger) {
+    public Alarms(IAlarmsScheduler alarmsScheduler, DatabaseQuery query, final AlarmCoreFactory factory, ContainerFactory containerFactory, Logger logger, final ModelThread modelThread, Prefs prefs) {
         this.mAlarmsScheduler = alarmsScheduler;
         this.query = query;
         this.factory = factory;
         this.containerFactory = containerFactory;
         this.logger = logger;
+        this.modelThread = modelThread;
         this.alarms = new HashMap<Integer, AlarmCore>();
+        this.notStarted = new ArrayList<AlarmActiveRecord>();
+
+        // one subscription for all alarms, the change is dispatched to all of them in one batch
+        prefs.preAlarmDuration()
+                .skip(1)// not interested in the first update on startup
+                .subscribe(new Consumer<Integer>() {
+                    @Override
+                    public void accept(@NonNull Integer duration) throws Exception {
+                        modelThread.execute(new Runnable() {
+                            @Override
+                            public void run() {
+                                onPreAlarmDurationChanged();
+                            }
+                        });
+                    }
+                });
     }
 
     public void start() {
-        query.query().subscribe(new Consumer<List<AlarmActiveRecord>>() {
+        start(Collections.<Integer>emptyList(), Schedulers.trampoline(), new Runnable() {
             @Override
-            public void accept(@NonNull List<AlarmActiveRecord> alarmRecords) throws Exception {
-                for (AlarmActiveRecord container : alarmRecords) {
-                    final AlarmCore a = factory.create(container);
-                    alarms.put(a.getId(), a);
-                    a.start();
-                    //TODO a.refresh();, but with a delay or something. We do not want to refresh the alarms that have just fired, right?
-                }
+            public void run() {
+                // nothing to do
+            }
+        });
+    }
+
+    /**
+     * Cold start fast path. Alarms with the given ids are loaded and started right away, so that an alarm which has
+     * woken up the process can be fired before the whole model is loaded. The rest is loaded and started on the
+     * deferred scheduler or as soon as any other alarm is accessed, whichever comes first.
+     *
+     * @param onStarted runs when all alarms have been started
+     */
+    public void start(Collection<Integer> firstIds, final Scheduler deferred, final Runnable onStarted) {
+        final Collection<Integer> ids = new LinkedHashSet<Integer>(firstIds);
+        Single<List<AlarmActiveRecord>> first = ids.isEmpty()
+                ? Single.just(Collections.<AlarmActiveRecord>emptyList())
+                : query.query(ids);
+        first.subscribe(new Consumer<List<AlarmActiveRecord>>() {
+            @Override
+            public void accept(@NonNull final List<AlarmActiveRecord> alarmRecords) throws Exception {
+                // query is retried on another thread if the database is not available yet
+                modelThread.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        Alarms.this.onStarted = onStarted;
+                        notLoaded = ids.isEmpty() ? query.query() : query.queryExcept(ids);
+                        startAlarms(alarmRecords);
+                        deferred.scheduleDirect(new Runnable() {
+                            @Override
+                            public void run() {
+                                startNotStarted();
+                            }
+                        });
+                    }
+                });
             }
         });
     }
 
+    private void startNotStarted() {
+        if (notLoaded != null) {
+            Single<List<AlarmActiveRecord>> rest = notLoaded;
+            notLoaded = null;
+            rest.subscribe(new Consumer<List<AlarmActiveRecord>>() {
+                @Override
+                public void accept(@NonNull final List<AlarmActiveRecord> alarmRecords) throws Exception {
+                    modelThread.execute(new Runnable() {
+                        @Override
+                        public void run() {
+                            notStarted.addAll(alarmRecords);
+                            startNotStarted();
+                        }
+                    });
+                }
+            });
+            return;
+        }
+        if (onStarted != null) {
+            List<AlarmActiveRecord> records = new ArrayList<AlarmActiveRecord>(notStarted);
+            notStarted.clear();
+            startAlarms(records);
+            Runnable callback = onStarted;
+            onStarted = null;
+            callback.run();
+        }
+    }
+
+    private void startAlarms(List<AlarmActiveRecord> alarmRecords) {
+        mAlarmsScheduler.beginBatch();
+        try {
+            for (AlarmActiveRecord container : alarmRecords) {
+                final AlarmCore a = factory.create(container);
+                alarms.put(a.getId(), a);
+                a.start();
+                //TODO a.refresh();, but with a delay or something. We do not want to refresh the alarms that have just fired, right?
+            }
+        } finally {
+            mAlarmsScheduler.commit();
+        }
+    }
+
     public void refresh() {
-        for (AlarmCore alarmCore : alarms.values()) {
-            alarmCore.refresh();
+        startNotStarted();
+        mAlarmsScheduler.beginBatch();
+        try {
+            for (AlarmCore alarmCore : alarms.values()) {
+                alarmCore.refresh();
+            }
+        } finally {
+            mAlarmsScheduler.commit();
+        }
+    }
+
+    private void onPreAlarmDurationChanged() {
+        startNotStarted();
+        mAlarmsScheduler.beginBatch();
+        try {
+            for (AlarmCore alarmCore : alarms.values()) {
+                alarmCore.onPreAlarmDurationChanged();
+            }
+        } finally {
+            mAlarmsScheduler.commit();
         }
     }
 
     public void onTimeSet() {
-        for (AlarmCore alarmCore : alarms.values()) {
-            alarmCore.onTimeSet();
+        startNotStarted();
+        mAlarmsScheduler.beginBatch();
+        try {
+            for (AlarmCore alarmCore : alarms.values()) {
+                alarmCore.onTimeSet();
+            }
+        } finally {
+            mAlarmsScheduler.commit();
         }
     }
 
     @Override
     @Nullable
     public AlarmCore getAlarm(int alarmId) {
+        if (!alarms.containsKey(alarmId)) {
+            startNotStarted();
+        }
         AlarmCore alarmCore = alarms.get(alarmId);
         if (alarmCore == null) {
             RuntimeException exception = new RuntimeException("Alarm with id " + alarmId + " not found!");
@@ -93,6 +222,7 @@ public class Alarms implements IAlarmsManager {
     @Override
     @NonNull
     public Alarm createNewAlarm() {
+        startNotStarted();
         AlarmCore alarm = factory.create(containerFactory.create());
         alarms.put(alarm.getId(), alarm);
         alarm.start();
@@ -101,6 +231,7 @@ public class Alarms implements IAlarmsManager {
 
     @Override
     public void delete(AlarmValue alarm) {
+        startNotStarted();
         alarms.get(alarm.getId()).delete();
         alarms.remove(alarm.getId());
     }
@@ -119,6 +250,7 @@ public class Alarms implements IAlarmsManager {
 
     @Override
     public void enable(AlarmValue alarm, boolean enable) {
+        startNotStarted();
         alarms.get(alarm.getId()).enable(enable);
     }
 
@@ -0,0 +1,99 @@
+package com.better.alarm.model
+
+import com.better.alarm.configuration.Prefs
+import com.better.alarm.interfaces.IAlarmsForecast
+import com.better.alarm.interfaces.IAlarmsForecast.Occurrence
+import java.util.*
+
+/**
+ * Every alarm is a stream of normal occurrences and, if prealarm is on, a stream of prealarms. Streams are merged
+ * with a binary heap, so iterating over the next n occurrences of k alarms takes O(k + n log k) and only the
+ * emitted [Occurrence]s are allocated after the heap has been built.
+ */
+class AlarmsForecast(private val prefs: Prefs, private val calendars: Calendars) : IAlarmsForecast {
+    override fun occurrences(alarm: AlarmValue, from: Long): Sequence<Occurrence> {
+        return occurrences(listOf(alarm), from, Long.MAX_VALUE)
+    }
+
+    override fun occurrences(alarms: List<AlarmValue>, from: Long, to: Long): Sequence<Occurrence> {
+        return Sequence { Merge(streams(alarms, from, to), to) }
+    }
+
+    private fun streams(alarms: List<AlarmValue>, from: Long, to: Long): Array<Stream?> {
+        val zone = calendars.now().timeZone
+        val preAlarmDuration = prefs.snapshot().preAlarmDuration
+        val streams = ArrayList<Stream>()
+        alarms.filter { it.isEnabled }.forEach { alarm ->
+            streams.add(Stream(alarm, CalendarType.NORMAL, 0, zone, from))
+            if (alarm.isPrealarm && preAlarmDuration != -1) {
+                streams.add(Stream(alarm, CalendarType.PREALARM, preAlarmDuration * 60 * 1000L, zone, from))
+            }
+        }
+        return streams.filter { it.millis < to }.toTypedArray()
+    }
+
+    /** Occurrences of one alarm which fire [offset] before the alarm time */
+    private class Stream(alarm: AlarmValue, val type: CalendarType, private val offset: Long, private val zone: TimeZone, from: Long) {
+        val id = alarm.id
+        private val hour = alarm.hour
+        private val minutes = alarm.minutes
+        private val daysOfWeek = alarm.daysOfWeek.coded
+
+        var millis: Long = nextAfter(from - 1)
+            private set
+
+        /** @return false if there are no more occurrences */
+        fun advance(): Boolean {
+            if (daysOfWeek == 0) return false
+            millis = nextAfter(millis)
+            return true
+        }
+
+        private fun nextAfter(time: Long): Long {
+            return NextOccurrence.nextTime(time + 1 + offset, zone, hour, minutes, daysOfWeek) - offset
+        }
+
+        fun before(other: Stream): Boolean {
+            return millis < other.millis || millis == other.millis && id < other.id
+        }
+    }
+
+    /** k-way merge, [heap] is a binary min-heap of streams */
+    private class Merge(private val heap: Array<Stream?>, private val to: Long) : Iterator<Occurrence> {
+        private var size = heap.size
+
+        init {
+            for (i in size / 2 - 1 downTo 0) siftDown(i)
+        }
+
+        override fun hasNext(): Boolean = size > 0
+
+        override fun next(): Occurrence {
+            if (size == 0) throw NoSuchElementException()
+            val head = heap[0]!!
+            val occurrence = Occurrence(head.id, head.type, head.millis)
+            if (!head.advance() || head.millis >= to) {
+                size--
+                heap[0] = heap[size]
+                heap[size] = null
+            }
+            siftDown(0)
+            return occurrence
+        }
+
+        private fun siftDown(start: Int) {
+            var index = start
+            while (true) {
+                val left = 2 * index + 1
+                if (left >= size) return
+                val right = left + 1
+                val child = if (right < size && heap[right]!!.before(heap[left]!!)) right else left
+                if (!heap[child]!!.before(heap[index]!!)) return
+                val tmp = heap[index]
+                heap[index] = heap[child]
+                heap[child] = tmp
+                index = child
+            }
+        }
+    }
+}
@@ -24,22 +24,36 @@ import com.better.alarm.interfaces.PresentationToModelIntents
 class AlarmsReceiver : BroadcastReceiver() {
     private val alarms = container().rawAlarms()
     private val log = container().logger()
+    private val modelThread = container().modelThread()
 
     override fun onReceive(context: Context, intent: Intent) {
+        modelThread.execute(Runnable { handle(intent) })
+    }
+
+    private fun handle(intent: Intent) {
         try {
             when (intent.action) {
                 AlarmsScheduler.ACTION_FIRED -> {
-                    val id = intent.getIntExtra(AlarmsScheduler.EXTRA_ID, -1)
-                    val calendarType = CalendarType.valueOf(intent.extras!!.getString(AlarmsScheduler.EXTRA_TYPE))
-                    log.d("Fired $id $calendarType")
-                    alarms.getAlarm(id)?.let {
-                        alarms.onAlarmFired(it, calendarType)
+                    // RTC alarms carry one alarm, alarms fired in the past come in one broadcast
+                    val ids = intent.getIntArrayExtra(AlarmsScheduler.EXTRA_IDS)
+                            ?: intArrayOf(intent.getIntExtra(AlarmsScheduler.EXTRA_ID, -1))
+                    val typeNames = intent.getStringArrayExtra(AlarmsScheduler.EXTRA_TYPES)
+                            ?: arrayOf(intent.extras!!.getString(AlarmsScheduler.EXTRA_TYPE))
+                    ids.forEachIndexed { index, id ->
+                        val calendarType = CalendarType.valueOf(typeNames[index])
+                        log.d("Fired $id $calendarType")
+                        alarms.getAlarm(id)?.let {
+                            alarms.onAlarmFired(it, calendarType)
+                        }
                     }
                 }
                 Intent.ACTION_BOOT_COMPLETED,
                 Intent.ACTION_TIMEZONE_CHANGED,
                 Intent.ACTION_LOCALE_CHANGED,
                 Intent.ACTION_MY_PACKAGE_REPLACED -> {
+                    if (intent.action == Intent.ACTION_LOCALE_CHANGED) {
+                        DaysOfWeek.onLocaleChanged()
+                    }
                     log.d("Refreshing alarms because of ${intent.action}")
                     alarms.refresh()
                 }
@@ -23,42 +23,71 @@ import com.better.alarm.util.Optional
 import java.text.SimpleDateFormat
 import java.util.*
 
-class AlarmsScheduler(private val setter: AlarmSetter, private val log: Logger, private val store: Store, private val prefs: Prefs, private val calendars: Calendars) : IAlarmsScheduler {
+class AlarmsScheduler @JvmOverloads constructor(
+        private val setter: AlarmSetter,
+        private val log: Logger,
+        private val store: Store,
+        private val prefs: Prefs,
+        private val calendars: Calendars,
+        private val queue: ScheduledAlarmQueue = HeapAlarmQueue(),
+        /** How many upcoming alarms are kept programmed in the RTC, see [programRtc], at most [MAX_RTC_SLOTS] */
+        private val rtcSlots: Int = 1,
+        /** Written whenever the programmed alarms have changed, see [SchedulerSnapshot] */
+        private val snapshot: SchedulerSnapshot? = null
+) : IAlarmsScheduler {
 
+    /**
+     * Trigger time is kept as epoch millis, so that comparisons in the queue do not touch [Calendar].
+     * Calendar is only created at the [AlarmSetter] boundary.
+     */
     data class ScheduledAlarm(
             val id: Int,
-            val calendar: Calendar,
+            val millis: Long,
             val type: CalendarType,
             val alarmValue: AlarmValue)
         : Comparable<ScheduledAlarm> {
 
         override fun compareTo(other: ScheduledAlarm): Int {
-            return this.calendar.compareTo(other.calendar)
+            return millis.compareTo(other.millis)
         }
 
         override fun toString(): String {
-            return "$id $type on ${DATE_FORMAT.format(calendar.time)}"
+            return "$id $type on ${DATE_FORMAT.format(Date(millis))}"
         }
     }
 
-    private val queue: PriorityQueue<ScheduledAlarm> = PriorityQueue()
+    init {
+        require(rtcSlots in 1..MAX_RTC_SLOTS) { "rtcSlots must be in 1..$MAX_RTC_SLOTS, was $rtcSlots" }
+    }
 
     private var isStarted = false
 
+    /** Alarms which are programmed in the RTC, index is the slot */
+    private val programmed = arrayOfNulls<ScheduledAlarm>(rtcSlots)
+    private val keepSlot = BooleanArray(rtcSlots)
+    private val upcoming = ArrayList<ScheduledAlarm>(rtcSlots)
+
+    private val firedInThePast = ArrayList<ScheduledAlarm>()
+
+    /** Programmed alarms have changed since the [snapshot] has been written */
+    private var snapshotIsStale = true
+
+    private var batchDepth = 0
+    private var batchPrevHead: ScheduledAlarm? = null
+    private var batchPrevNormalHead: ScheduledAlarm? = null
+
     /** Actually start scheduling alarms */
     fun start() {
         isStarted = true
         fireAlarmsInThePast()
-        if (queue.isNotEmpty()) {
-            // do not use iterator, order is not defined
-            val currentHead = queue.peek()
-            setter.setUpRTCAlarm(currentHead.id, currentHead.type.name, currentHead.calendar)
-        }
+        programRtc()
+        cancelStaleSlots()
+        writeSnapshot()
         notifyListeners()
     }
 
     override fun setAlarm(id: Int, type: CalendarType, calendar: Calendar, alarmValue: AlarmValue) {
-        val scheduledAlarm = ScheduledAlarm(id, calendar, type, alarmValue)
+        val scheduledAlarm = ScheduledAlarm(id, calendar.timeInMillis, type, alarmValue)
         replaceAlarm(id, scheduledAlarm)
     }
 
@@ -66,15 +95,42 @@ class AlarmsScheduler(private val setter: AlarmSetter, private val log: Logger,
         replaceAlarm(id, null)
     }
 
+    override fun beginBatch() {
+        if (batchDepth++ == 0) {
+            batchPrevHead = queue.peek()
+            batchPrevNormalHead = queue.peekNormal()
+        }
+    }
+
+    override fun commit() {
+        check(batchDepth > 0) { "commit() without beginBatch()" }
+        if (--batchDepth == 0) {
+            val prevHead = batchPrevHead
+            val prevNormalHead = batchPrevNormalHead
+            batchPrevHead = null
+            batchPrevNormalHead = null
+            reschedule(prevHead, prevNormalHead)
+        }
+    }
+
     private fun replaceAlarm(id: Int, newAlarm: ScheduledAlarm?) {
         val prevHead: ScheduledAlarm? = queue.peek()
+        val prevNormalHead: ScheduledAlarm? = queue.peekNormal()
 
-        // remove if we have already an alarm
-        queue.removeAll { it.id == id }
+        // replace if we have already an alarm
         if (newAlarm != null) {
-            queue.add(newAlarm)
+            queue.put(newAlarm)
+        } else {
+            queue.remove(id)
         }
 
+        // within a batch RTC is set and listeners are notified on commit
+        if (batchDepth == 0) {
+            reschedule(prevHead, prevNormalHead)
+        }
+    }
+
+    private fun reschedule(prevHead: ScheduledAlarm?, prevNormalHead: ScheduledAlarm?) {
         if (isStarted) {
             fireAlarmsInThePast()
         }
@@ -84,20 +140,81 @@ class AlarmsScheduler(private val setter: AlarmSetter, private val log: Logger,
             !isStarted -> {
                 log.d("skip setting $currentHead (not started yet)")
             }
-            // no alarms, remove
-            currentHead == null -> {
-                setter.removeRTCAlarm()
+            // next alarm has changed, also if the head is an autosilence timer
+            currentHead != prevHead || queue.peekNormal() != prevNormalHead -> {
+                programRtc()
+                writeSnapshot()
                 notifyListeners()
             }
-            // update current RTC, id will be used as the request code
-            currentHead != prevHead -> {
-                setter.setUpRTCAlarm(currentHead.id, currentHead.type.name, currentHead.calendar)
-                notifyListeners()
+            // head remains the same, but other programmed alarms may have changed
+            else -> {
+                programRtc()
+                writeSnapshot()
+            }
+        }
+    }
+
+    /**
+     * Only the programmed alarms can wake the process up, so only these are written. Alarms which are due at the
+     * same time but did not fit into the slots are fired by [fireAlarmsInThePast] once all alarms are started.
+     */
+    private fun writeSnapshot() {
+        if (snapshot != null && snapshotIsStale) {
+            snapshotIsStale = false
+            snapshot.write(programmed.filterNotNull().sorted(), rtcSlots)
+        }
+    }
+
+    /**
+     * Keeps [rtcSlots] earliest alarms programmed in the RTC. Alarms which are already programmed keep their
+     * slot, so only the difference costs calls to [setter]. Changes of alarms after the programmed ones cost
+     * nothing at all.
+     */
+    private fun programRtc() {
+        upcoming.clear()
+        queue.peek(rtcSlots, upcoming)
+
+        for (slot in programmed.indices) {
+            val alarm = programmed[slot]
+            val index = if (alarm == null) -1 else upcoming.indexOfFirst { it.isSameRtcAlarm(alarm) }
+            keepSlot[slot] = index >= 0
+            if (index >= 0) {
+                upcoming.removeAt(index)
+            }
+        }
+
+        for (slot in programmed.indices) {
+            if (keepSlot[slot]) continue
+            val prev = programmed[slot]
+            val next = if (upcoming.isEmpty()) null else upcoming.removeAt(0)
+            programmed[slot] = next
+            when {
+                next != null -> setter.setUpRTCAlarm(slot, next.id, next.type.name, next.toCalendar())
+                prev != null -> setter.removeRTCAlarm(slot)
+            }
+            if (next != null || prev != null) {
+                snapshotIsStale = true
             }
-            // if head remains the same, do nothing
-            else -> log.d("skip setting $currentHead (already set)")
         }
+    }
 
+    /**
+     * Slots which were programmed by a previous process are not known, also not those above a reduced number of
+     * [rtcSlots]. Everything which is not programmed now is cancelled, otherwise stale alarms would fire. Only slots
+     * which the [snapshot] says were in use are cancelled, all of them if there is no snapshot.
+     */
+    private fun cancelStaleSlots() {
+        val used = snapshot?.slots()?.coerceAtMost(MAX_RTC_SLOTS) ?: MAX_RTC_SLOTS
+        for (slot in 0 until maxOf(used, rtcSlots)) {
+            if (slot >= rtcSlots || programmed[slot] == null) {
+                setter.removeRTCAlarm(slot)
+            }
+        }
+    }
+
+    /** Alarm in the RTC does not have to be replaced if only [ScheduledAlarm.alarmValue] has changed */
+    private fun ScheduledAlarm.isSameRtcAlarm(other: ScheduledAlarm): Boolean {
+        return id == other.id && millis == other.millis && type == other.type
     }
 
     /**
@@ -107,12 +224,21 @@ class AlarmsScheduler(private val setter: AlarmSetter, private val log: Logger,
      */
 
     private fun fireAlarmsInThePast() {
-        val now = calendars.now()
-        while (!queue.isEmpty() && queue.peek().calendar.before(now)) {
+        if (queue.isEmpty()) return
+        val now = calendars.now().timeInMillis
+        queue.advanceTo(now)
+        while (queue.peek()?.let { it.millis < now } == true) {
             // remove happens in fire
-            val firedInThePastAlarm = queue.poll()
+            val firedInThePastAlarm = queue.poll()!!
             log.d("In the past - $firedInThePastAlarm")
-            setter.fireNow(firedInThePastAlarm.id, firedInThePastAlarm.type.name)
+            firedInThePast.add(firedInThePastAlarm)
+        }
+        if (firedInThePast.isNotEmpty()) {
+            // one broadcast for all of them, ordered by trigger time
+            setter.fireNow(
+                    IntArray(firedInThePast.size) { firedInThePast[it].id },
+                    Array(firedInThePast.size) { firedInThePast[it].type.name })
+            firedInThePast.clear()
         }
     }
 
@@ -129,15 +255,15 @@ class AlarmsScheduler(private val setter: AlarmSetter, private val log: Logger,
                     fun findNormalTime(scheduledAlarm: ScheduledAlarm): Long {
                         // we can only assume that the real one will be a little later,
                         // namely:
-                        val prealarmOffsetInMillis = prefs.preAlarmDuration().blockingFirst() * 60 * 1000
-                        return scheduledAlarm.calendar.timeInMillis + prealarmOffsetInMillis
+                        val prealarmOffsetInMillis = prefs.snapshot().preAlarmDuration * 60 * 1000
+                        return scheduledAlarm.millis + prealarmOffsetInMillis
                     }
 
                     val isPrealarm = scheduledAlarm.type == CalendarType.PREALARM
                     Store.Next(
                             /* isPrealarm */ isPrealarm,
                             /* alarm */ scheduledAlarm.alarmValue,
-                            /* nextNonPrealarmTime */ if (isPrealarm) findNormalTime(scheduledAlarm) else scheduledAlarm.calendar.timeInMillis)
+                            /* nextNonPrealarmTime */ if (isPrealarm) findNormalTime(scheduledAlarm) else scheduledAlarm.millis)
 
 
                 }
@@ -146,15 +272,22 @@ class AlarmsScheduler(private val setter: AlarmSetter, private val log: Logger,
     }
 
     private fun findNextNormalAlarm(): ScheduledAlarm? {
-        return queue
-                .sorted()
-                .firstOrNull { it.type != CalendarType.AUTOSILENCE }
+        return queue.peekNormal()
+    }
+
+    private fun ScheduledAlarm.toCalendar(): Calendar {
+        return calendars.now().apply { timeInMillis = millis }
     }
 
     companion object {
+        /** Upper bound of [rtcSlots], all of these slots are cleaned up on [start] if it is not known which were used */
+        const val MAX_RTC_SLOTS = 16
         val DATE_FORMAT: SimpleDateFormat = SimpleDateFormat("dd-MM-yy HH:mm:ss", Locale.GERMANY)
         const val ACTION_FIRED = BuildConfig.APPLICATION_ID + ".ACTION_FIRED"
         const val EXTRA_ID = "intent.extra.alarm"
         const val EXTRA_TYPE = "intent.extra.type"
+        /** Alarms fired with one broadcast, see [AlarmSetter.fireNow] */
+        const val EXTRA_IDS = "intent.extra.alarms"
+        const val EXTRA_TYPES = "intent.extra.types"
     }
 }
@@ -0,0 +1,38 @@
+package com.better.alarm.model
+
+import com.better.alarm.statemachine.HandlerFactory
+import com.better.alarm.statemachine.IHandler
+import com.better.alarm.statemachine.MessageHandler
+import java.io.Flushable
+
+/**
+ * Handles every message of the [delegate] handlers in a batch of the [alarmsScheduler]. State transitions of one
+ * message often remove and set an alarm back to back (e.g. exit of SetState followed by PreAlarmSetState), this
+ * way they reach the [AlarmSetter] as one final change.
+ *
+ * Same for the [persistence], which is flushed after every message, so a record which is changed several times
+ * while a message is handled is written once. Messages which are sent while another one is handled are handled
+ * right away by [ImmediateHandlerFactory], the persistence is flushed once the outermost message is done.
+ */
+class BatchingHandlerFactory @JvmOverloads constructor(
+        private val delegate: HandlerFactory,
+        private val alarmsScheduler: IAlarmsScheduler,
+        private val persistence: Flushable? = null
+) : HandlerFactory {
+    /** Messages which are being handled, the nested ones included */
+    private var depth = 0
+
+    override fun create(messageHandler: MessageHandler): IHandler {
+        return delegate.create(MessageHandler { message ->
+            alarmsScheduler.beginBatch()
+            depth++
+            try {
+                messageHandler.handleMessage(message)
+            } finally {
+                depth--
+                alarmsScheduler.commit()
+                if (depth == 0) persistence?.flush()
+            }
+        })
+    }
+}
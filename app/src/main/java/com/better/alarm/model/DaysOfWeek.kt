@@ -11,36 +11,48 @@ import java.util.*
  * Sunday
  */
 data class DaysOfWeek(val coded: Int) {
-    // Returns days of week encoded in an array of booleans.
-    val booleanArray = BooleanArray(7) { index -> index.isSet() }
+    // Returns days of week encoded in an array of booleans. A new array every time, dialogs modify it. Use isSet to read.
+    val booleanArray: BooleanArray
+        get() = BooleanArray(7) { index -> isSet(index) }
     val isRepeatSet = coded != 0
 
+    /**
+     * Labels are cached for the current locale, so binding a list row does not allocate.
+     */
     fun toString(context: Context, showNever: Boolean): String {
+        val labels = labels?.takeIf { it.locale == Locale.getDefault() } ?: Labels(context).also { labels = it }
         return when {
-            coded == 0 && showNever -> context.getText(R.string.never).toString()
+            coded == 0 && showNever -> labels.never
             coded == 0 -> ""
+            coded !in labels.strings.indices -> label(context, labels)
+            else -> labels.strings[coded] ?: label(context, labels).also { labels.strings[coded] = it }
+        }
+    }
+
+    private fun label(context: Context, labels: Labels): String {
+        return when (coded) {
             // every day
-            coded == 0x7f -> return context.getText(R.string.every_day).toString()
+            0x7f -> context.getText(R.string.every_day).toString()
             // count selected days
             else -> {
-                val dayCount = (0..6).count { it.isSet() }
+                val dayCount = (0..6).count { isSet(it) }
                 // short or long form?
                 val dayStrings = when {
-                    dayCount > 1 -> DateFormatSymbols().shortWeekdays
-                    else -> DateFormatSymbols().weekdays
+                    dayCount > 1 -> labels.shortWeekdays
+                    else -> labels.weekdays
                 }
 
-                (0..6).filter { it.isSet() }
+                (0..6).filter { isSet(it) }
                         .map { dayIndex -> DAY_MAP[dayIndex] }
                         .map { calDay -> dayStrings[calDay] }
                         .joinToString(context.getText(R.string.day_concat))
             }
         }
-
     }
 
-    private fun Int.isSet(): Boolean {
-        return coded and (1 shl this) > 0
+    /** @return true if [day] is set, 0 is Monday */
+    fun isSet(day: Int): Boolean {
+        return coded and (1 shl day) > 0
     }
 
     /**
@@ -51,21 +63,51 @@ data class DaysOfWeek(val coded: Int) {
 
         return (0..6).firstOrNull { dayCount ->
             val day = (todayIndex + dayCount) % 7
-            day.isSet()
+            isSet(day)
         } ?: -1
     }
 
     override fun toString(): String {
-        return (if (0.isSet()) "m" else "_") +
-                (if (1.isSet()) 't' else '_') +
-                (if (2.isSet()) 'w' else '_') +
-                (if (3.isSet()) 't' else '_') +
-                (if (4.isSet()) 'f' else '_') +
-                (if (5.isSet()) 's' else '_') +
-                if (6.isSet()) 's' else '_'
+        return (if (isSet(0)) "m" else "_") +
+                (if (isSet(1)) 't' else '_') +
+                (if (isSet(2)) 'w' else '_') +
+                (if (isSet(3)) 't' else '_') +
+                (if (isSet(4)) 'f' else '_') +
+                (if (isSet(5)) 's' else '_') +
+                if (isSet(6)) 's' else '_'
+    }
+
+    /**
+     * Localized strings of one locale, [strings] are filled in when they are used for the first time. Dropped by
+     * [onLocaleChanged] and also if the default locale has changed before the broadcast has arrived.
+     */
+    private class Labels(context: Context) {
+        val locale: Locale = Locale.getDefault()
+        val never = context.getText(R.string.never).toString()
+        val weekdays: Array<String> = DateFormatSymbols(locale).weekdays
+        val shortWeekdays: Array<String> = DateFormatSymbols(locale).shortWeekdays
+        val strings = arrayOfNulls<String>(128)
     }
 
     companion object {
         private val DAY_MAP = intArrayOf(Calendar.MONDAY, Calendar.TUESDAY, Calendar.WEDNESDAY, Calendar.THURSDAY, Calendar.FRIDAY, Calendar.SATURDAY, Calendar.SUNDAY)
+
+        private val interned = Array(128) { DaysOfWeek(it) }
+
+        @Volatile
+        private var labels: Labels? = null
+
+        /**
+         * @return shared instance for [coded], there are only 128 different days of week. Values which are out of
+         * range, like a broken database row, get an instance of their own as they did before.
+         */
+        @JvmStatic
+        fun of(coded: Int): DaysOfWeek = if (coded in interned.indices) interned[coded] else DaysOfWeek(coded)
+
+        /** Drops cached labels, they are created again in the new locale when used */
+        @JvmStatic
+        fun onLocaleChanged() {
+            labels = null
+        }
     }
 }
\ No newline at end of file
@@ -0,0 +1,157 @@
+package com.better.alarm.model
+
+import com.better.alarm.statemachine.HandlerFactory
+import com.better.alarm.statemachine.IHandler
+import com.better.alarm.statemachine.Message
+import com.better.alarm.statemachine.MessageHandler
+import java.io.Flushable
+import java.util.*
+
+/**
+ * One event loop for all state machines. Every [IHandler] is a mailbox, sending a message only puts it there and the
+ * mailboxes are drained later on the [modelThread], so the caller is not blocked by a bulk operation.
+ *
+ * Mailboxes with messages are drained round-robin, [batchSize] messages of one mailbox at a time. Once [budget]
+ * messages have been handled (checked between batches) the loop posts itself again to let other work on the model
+ * thread run in between. The loop has no thread of its own, in the app it runs on the main thread like the rest of
+ * the model and only splits bulk work into several posts.
+ *
+ * Every run of the loop is one batch of the [alarmsScheduler] and flushes the [persistence] once, like
+ * [BatchingHandlerFactory] does for a single message, so the messages of a refresh reach the [AlarmSetter] and the
+ * database together. The [wakeLock] is held from the first queued message until the mailboxes are empty, the
+ * broadcast which has sent a message (e.g. a fired alarm) has already released its own by then.
+ */
+class EventLoopHandlerFactory @JvmOverloads constructor(
+        private val modelThread: ModelThread,
+        private val alarmsScheduler: IAlarmsScheduler? = null,
+        private val persistence: Flushable? = null,
+        private val wakeLock: WakeLock? = null,
+        private val batchSize: Int = 8,
+        private val budget: Int = 256
+) : HandlerFactory {
+    interface WakeLock {
+        fun acquire()
+
+        fun release()
+    }
+
+    data class Metrics(
+            /** messages handled since start */
+            val handled: Long,
+            /** times the loop has run */
+            val drains: Long,
+            /** messages waiting in mailboxes */
+            val pending: Int,
+            /** most messages which have been waiting at once */
+            val maxPending: Int
+    )
+
+    /** Mailboxes which have messages, in the order they will be drained */
+    private val ready = ArrayDeque<Mailbox>()
+    private var drainScheduled = false
+    private var current: Message? = null
+    private var handled = 0L
+    private var drains = 0L
+    private var pending = 0
+    private var maxPending = 0
+
+    private val drain = Runnable { drain() }
+
+    override fun create(messageHandler: MessageHandler): IHandler = Mailbox(messageHandler)
+
+    fun metrics(): Metrics = Metrics(handled = handled, drains = drains, pending = pending, maxPending = maxPending)
+
+    private inner class Mailbox(val messageHandler: MessageHandler) : IHandler {
+        val messages = ArrayDeque<Message>()
+        var isReady = false
+
+        override fun sendMessageAtFrontOfQueue(message: Message) {
+            messages.addFirst(queueable(message))
+            onMessage(this)
+        }
+
+        override fun sendMessage(message: Message) {
+            messages.addLast(queueable(message))
+            onMessage(this)
+        }
+
+        /** The message which is being handled is recycled afterwards, so a copy of it is queued if it is sent again */
+        private fun queueable(message: Message): Message = if (message === current) message.copy() else message
+
+        override fun obtainMessage(what: Int, obj: Any): Message {
+            return Message.obtain(what, this).withObj(obj)
+        }
+
+        override fun obtainMessage(what: Int): Message {
+            return Message.obtain(what, this)
+        }
+    }
+
+    private fun onMessage(mailbox: Mailbox) {
+        if (pending == 0) {
+            wakeLock?.acquire()
+        }
+        pending++
+        maxPending = maxOf(maxPending, pending)
+        if (!mailbox.isReady) {
+            mailbox.isReady = true
+            ready.addLast(mailbox)
+        }
+        if (!drainScheduled) {
+            drainScheduled = true
+            modelThread.scheduler.scheduleDirect(drain)
+        }
+    }
+
+    private fun drain() {
+        drainScheduled = false
+        drains++
+        alarmsScheduler?.beginBatch()
+        try {
+            drainBudget()
+        } finally {
+            try {
+                alarmsScheduler?.commit()
+                persistence?.flush()
+            } finally {
+                // also if a message has thrown, the other messages are still handled and the wake lock released
+                if (ready.isNotEmpty() && !drainScheduled) {
+                    drainScheduled = true
+                    modelThread.scheduler.scheduleDirect(drain)
+                } else if (pending == 0) {
+                    wakeLock?.release()
+                }
+            }
+        }
+    }
+
+    private fun drainBudget() {
+        var remaining = budget
+        while (remaining > 0) {
+            val mailbox = ready.pollFirst() ?: break
+            var count = 0
+            try {
+                while (count < batchSize) {
+                    val message = mailbox.messages.pollFirst() ?: break
+                    pending--
+                    handled++
+                    count++
+                    current = message
+                    try {
+                        mailbox.messageHandler.handleMessage(message)
+                    } finally {
+                        current = null
+                        message.recycle()
+                    }
+                }
+            } finally {
+                remaining -= count
+                if (mailbox.messages.isEmpty()) {
+                    mailbox.isReady = false
+                } else {
+                    ready.addLast(mailbox)
+                }
+            }
+        }
+    }
+}
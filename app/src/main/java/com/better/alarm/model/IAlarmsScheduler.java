@@ -29,4 +29,18 @@ public interface IAlarmsScheduler {
      * @param id
      */
     public void setAlarm(int id, CalendarType calendarType, Calendar calendar, AlarmValue alarmValue);
+
+    /**
+     * Start a batch of changes. Until the matching {@link #commit()} alarms are
+     * set and removed as usual, but the RTC alarm is not reprogrammed and
+     * listeners are not notified. Batches can be nested.
+     */
+    public void beginBatch();
+
+    /**
+     * Finish the batch started with {@link #beginBatch()}. When the outermost
+     * batch is committed, RTC alarm is reprogrammed and listeners are notified
+     * at most once.
+     */
+    public void commit();
 }
@@ -5,43 +5,45 @@ import com.better.alarm.statemachine.IHandler
 import com.better.alarm.statemachine.Message
 import com.better.alarm.statemachine.MessageHandler
 
+/**
+ * Handles messages synchronously on the calling thread. Messages which are sent while another one is handled are
+ * handled right away as well (depth first), no matter if they are sent at front or not, so no queue is needed.
+ *
+ * A message is recycled once it has been handled, unless it is sent again while it is handled, then the outer call
+ * recycles it.
+ */
 class ImmediateHandlerFactory : HandlerFactory {
     override fun create(messageHandler: MessageHandler): IHandler {
         return object : IHandler {
-            val messages = mutableListOf<Message>()
+            /** Messages which are being handled, the innermost last */
+            private val handling = ArrayList<Message>(4)
 
             override fun sendMessageAtFrontOfQueue(message: Message) {
-                sendMessage(message, true)
+                handle(message)
             }
 
             override fun sendMessage(message: Message) {
-                sendMessage(message, false)
+                handle(message)
             }
 
-            private fun sendMessage(message: Message, front: Boolean) {
-                when {
-                    messages.isEmpty() -> {
-                        messageHandler.handleMessage(message)
-                    }
-                    front -> {
-                        messages.add(0, message)
-                    }
-                    else -> {
-                        messages.add(message)
-                    }
-                }
-                while (messages.isNotEmpty()) {
-                    messageHandler.handleMessage(messages.removeAt(0))
+            private fun handle(message: Message) {
+                val isHandled = handling.any { it === message }
+                handling.add(message)
+                try {
+                    messageHandler.handleMessage(message)
+                } finally {
+                    handling.removeAt(handling.size - 1)
+                    if (!isHandled) message.recycle()
                 }
             }
 
             override fun obtainMessage(what: Int, obj: Any): Message {
-                return Message(what, this, null, null, obj)
+                return Message.obtain(what, this).withObj(obj)
             }
 
             override fun obtainMessage(what: Int): Message {
-                return Message(what, this, null, null, null)
+                return Message.obtain(what, this)
             }
         }
     }
-}
\ No newline at end of file
+}
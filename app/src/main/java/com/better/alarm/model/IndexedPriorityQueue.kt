@@ -0,0 +1,172 @@
+package com.better.alarm.model
+
+import java.util.*
+
+/**
+ * Binary min-heap which additionally keeps track of the slot of every element by its id.
+ *
+ * [java.util.PriorityQueue] can only remove an element with a linear scan followed by a re-heapify.
+ * This queue replaces, removes and changes the priority (decrease-key) of an element in O(log n).
+ * Only one element per id is kept, putting an element with an existing id replaces it.
+ */
+class IndexedPriorityQueue<T : Comparable<T>>(private val idOf: (T) -> Int) : Iterable<T> {
+    private val heap = ArrayList<T>()
+    private val slots = HashMap<Int, Int>()
+
+    val size: Int
+        get() = heap.size
+
+    fun isEmpty(): Boolean = heap.isEmpty()
+
+    fun isNotEmpty(): Boolean = heap.isNotEmpty()
+
+    fun peek(): T? = if (heap.isEmpty()) null else heap[0]
+
+    /** Frontier of heap indices for [peek], itself a min-heap ordered by the elements at these indices */
+    private var candidates = IntArray(16)
+    private var candidateCount = 0
+
+    /**
+     * Adds up to [count] smallest elements to [into] in ascending order. Only the part of the heap above
+     * these elements is visited, which is O(count log count). Does not allocate apart from growing [into].
+     */
+    fun peek(count: Int, into: MutableList<T>) {
+        if (heap.isEmpty() || count <= 0) return
+        if (count == 1) {
+            into.add(heap[0])
+            return
+        }
+        // children of a taken element are its candidates, so there are at most count + 1 of them
+        val capacity = minOf(count, heap.size) + 1
+        if (candidates.size < capacity) candidates = IntArray(capacity)
+        candidateCount = 0
+        addCandidate(0)
+        repeat(count) {
+            if (candidateCount == 0) return
+            val index = pollCandidate()
+            into.add(heap[index])
+            val child = 2 * index + 1
+            if (child < heap.size) addCandidate(child)
+            if (child + 1 < heap.size) addCandidate(child + 1)
+        }
+    }
+
+    private fun addCandidate(index: Int) {
+        var at = candidateCount++
+        while (at > 0) {
+            val parent = (at - 1) ushr 1
+            if (heap[index] >= heap[candidates[parent]]) break
+            candidates[at] = candidates[parent]
+            at = parent
+        }
+        candidates[at] = index
+    }
+
+    private fun pollCandidate(): Int {
+        val head = candidates[0]
+        val last = candidates[--candidateCount]
+        var at = 0
+        val half = candidateCount ushr 1
+        while (at < half) {
+            var child = 2 * at + 1
+            if (child + 1 < candidateCount && heap[candidates[child + 1]] < heap[candidates[child]]) child++
+            if (heap[last] <= heap[candidates[child]]) break
+            candidates[at] = candidates[child]
+            at = child
+        }
+        if (candidateCount > 0) candidates[at] = last
+        return head
+    }
+
+    operator fun get(id: Int): T? = slots[id]?.let { heap[it] }
+
+    operator fun contains(id: Int): Boolean = slots.containsKey(id)
+
+    /**
+     * Adds the element or replaces the element with the same id.
+     *
+     * @return the replaced element or null if there was no element with this id
+     */
+    fun put(element: T): T? {
+        val slot = slots[idOf(element)]
+        return if (slot == null) {
+            heap.add(element)
+            siftUp(heap.size - 1, element)
+            null
+        } else {
+            val replaced = heap[slot]
+            // decrease-key moves the element up, increase-key moves it down
+            if (element < replaced) siftUp(slot, element) else siftDown(slot, element)
+            replaced
+        }
+    }
+
+    /**
+     * @return the removed element or null if there was no element with this id
+     */
+    fun remove(id: Int): T? {
+        val slot = slots.remove(id) ?: return null
+        val removed = heap[slot]
+        val last = heap.removeAt(heap.size - 1)
+        if (slot < heap.size) {
+            // fill the gap with the last element and restore the heap, it moves either up or down
+            siftDown(slot, last)
+            if (heap[slot] === last) {
+                siftUp(slot, last)
+            }
+        }
+        return removed
+    }
+
+    fun poll(): T? {
+        val head = peek()
+        if (head != null) {
+            remove(idOf(head))
+        }
+        return head
+    }
+
+    fun clear() {
+        heap.clear()
+        slots.clear()
+    }
+
+    /**
+     * Iterates in heap order, which is not sorted.
+     */
+    override fun iterator(): Iterator<T> = heap.iterator()
+
+    private fun siftUp(start: Int, element: T) {
+        var index = start
+        while (index > 0) {
+            val parent = (index - 1) ushr 1
+            val parentElement = heap[parent]
+            if (element >= parentElement) break
+            place(index, parentElement)
+            index = parent
+        }
+        place(index, element)
+    }
+
+    private fun siftDown(start: Int, element: T) {
+        var index = start
+        val half = heap.size ushr 1
+        while (index < half) {
+            var child = 2 * index + 1
+            val right = child + 1
+            if (right < heap.size && heap[right] < heap[child]) {
+                child = right
+            }
+            val childElement = heap[child]
+            if (element <= childElement) break
+            place(index, childElement)
+            index = child
+        }
+        place(index, element)
+    }
+
+    private fun place(index: Int, element: T) {
+        heap[index] = element
+        slots[idOf(element)] = index
+    }
+}
@@ -0,0 +1,26 @@
+package com.better.alarm.model
+
+import io.reactivex.Scheduler
+
+/**
+ * Posts work to the thread which owns the model. [Alarms], their state machines and [AlarmsScheduler] are not
+ * thread safe, so work which arrives on other threads, like the retried database query or preference changes, is
+ * posted to the thread of [scheduler]. Work on this thread runs inline.
+ *
+ * The app uses the main thread, where receivers, services and presenters call the model anyway. It is not a
+ * dedicated thread and has no mailbox of its own, so the main thread still does all the model work. Only
+ * [Alarms], [EventLoopHandlerFactory] and [AlarmsReceiver] go through [execute], and the receiver is called on the
+ * main thread anyway. Calls to [IAlarmsManager][com.better.alarm.interfaces.IAlarmsManager] are not marshalled,
+ * they must already be on the main thread.
+ *
+ * @param isCurrent true if called on the model thread
+ */
+class ModelThread(val scheduler: Scheduler, private val isCurrent: () -> Boolean) {
+    fun execute(action: Runnable) {
+        if (isCurrent()) {
+            action.run()
+        } else {
+            scheduler.scheduleDirect(action)
+        }
+    }
+}
@@ -0,0 +1,91 @@
+package com.better.alarm.model
+
+import java.util.*
+
+/**
+ * Next alarm time calculations on epoch millis, without [Calendar] instances. Results are the same as of the
+ * lenient [GregorianCalendar] arithmetic which was used before:
+ *  * a time of day which falls into a DST gap is moved forward by the length of the gap
+ *  * an ambiguous time of day (DST overlap) resolves to standard time, which is the later instant
+ *  * adding days keeps the time of day, unless the result would fall onto another day because of a DST change
+ */
+object NextOccurrence {
+    private const val DAY = 24 * 60 * 60 * 1000L
+    private const val HOUR = 60 * 60 * 1000L
+    private const val MINUTE = 60 * 1000L
+
+    /** 01.01.1970 was a Thursday, days of week are counted from Monday as in [DaysOfWeek] */
+    private const val EPOCH_DAY_OF_WEEK = 3
+
+    /**
+     * Days until the next set day, starting with today, for every [DaysOfWeek.coded] and day of week.
+     * -1 if no days are set.
+     */
+    private val daysUntilNext = ByteArray(128 * 7).apply {
+        for (coded in 0 until 128) {
+            for (dayOfWeek in 0 until 7) {
+                this[coded * 7 + dayOfWeek] = ((0..6).firstOrNull { coded and (1 shl ((dayOfWeek + it) % 7)) != 0 } ?: -1).toByte()
+            }
+        }
+    }
+
+    /**
+     * @param dayOfWeek 0 is Monday
+     * @return days from [dayOfWeek] until the next day which is set in [daysOfWeek], 0 if it is set itself,
+     * -1 if no days are set
+     */
+    @JvmStatic
+    fun daysUntilNext(daysOfWeek: Int, dayOfWeek: Int): Int = daysUntilNext[daysOfWeek * 7 + dayOfWeek].toInt()
+
+    /**
+     * @return first time at [hour]:[minute] which is not before [now] and is on one of [daysOfWeek], on any day if
+     * no days are set
+     */
+    @JvmStatic
+    fun nextTime(now: Long, zone: TimeZone, hour: Int, minute: Int, daysOfWeek: Int): Long {
+        val offsets = ZoneOffsets.forZone(zone, now)
+        val today = floorDiv(now + offsets.offsetAt(now), DAY)
+        val time = offsets.wallToUtc(today * DAY + hour * HOUR + minute * MINUTE)
+        return advance(time, now, offsets, daysOfWeek)
+    }
+
+    /**
+     * Moves [time] one day forward if it is before [now] and then forward to the next day which is set in
+     * [daysOfWeek], keeping the time of day.
+     */
+    @JvmStatic
+    fun advance(time: Long, now: Long, zone: TimeZone, daysOfWeek: Int): Long {
+        return advance(time, now, ZoneOffsets.forZone(zone, now), daysOfWeek)
+    }
+
+    private fun advance(time: Long, now: Long, offsets: ZoneOffsets, daysOfWeek: Int): Long {
+        val tomorrowIfPassed = if (time < now) addDays(time, 1, offsets) else time
+        val dayOfWeek = floorMod(floorDiv(tomorrowIfPassed + offsets.offsetAt(tomorrowIfPassed), DAY) + EPOCH_DAY_OF_WEEK, 7)
+        val addDays = daysUntilNext(daysOfWeek, dayOfWeek.toInt())
+        return if (addDays > 0) addDays(tomorrowIfPassed, addDays, offsets) else tomorrowIfPassed
+    }
+
+    /** Same as [GregorianCalendar.add] with [Calendar.DAY_OF_YEAR] */
+    private fun addDays(time: Long, days: Int, offsets: ZoneOffsets): Long {
+        val offset = offsets.offsetAt(time)
+        val wall = time + offset
+        val day = floorDiv(wall, DAY) + days
+        val result = day * DAY + floorMod(wall, DAY) - offset
+        val newOffset = offsets.offsetAt(result)
+        if (newOffset != offset) {
+            // keep the time of day, unless this moves the result to another day
+            val adjusted = result + offset - newOffset
+            if (floorDiv(adjusted + offsets.offsetAt(adjusted), DAY) == day) {
+                return adjusted
+            }
+        }
+        return result
+    }
+
+    private fun floorDiv(x: Long, y: Long): Long {
+        val quotient = x / y
+        return if (x % y != 0L && (x xor y) < 0) quotient - 1 else quotient
+    }
+
+    private fun floorMod(x: Long, y: Long): Long = x - floorDiv(x, y) * y
+}
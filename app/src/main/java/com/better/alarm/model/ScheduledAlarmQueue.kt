@@ -0,0 +1,69 @@
+package com.better.alarm.model
+
+import com.better.alarm.model.AlarmsScheduler.ScheduledAlarm
+
+/**
+ * Storage for [ScheduledAlarm]s used by [AlarmsScheduler]. Contains at most one alarm per id.
+ */
+interface ScheduledAlarmQueue {
+    /** Adds the alarm or replaces the alarm with the same id */
+    fun put(alarm: ScheduledAlarm)
+
+    /** @return the removed alarm or null if there was no alarm with this id */
+    fun remove(id: Int): ScheduledAlarm?
+
+    /** @return the earliest alarm */
+    fun peek(): ScheduledAlarm?
+
+    /** @return the earliest alarm which is not [CalendarType.AUTOSILENCE] */
+    fun peekNormal(): ScheduledAlarm?
+
+    /** Adds up to [count] earliest alarms to [into], earliest first */
+    fun peek(count: Int, into: MutableList<ScheduledAlarm>)
+
+    fun isEmpty(): Boolean
+
+    /** Removes and returns the earliest alarm */
+    fun poll(): ScheduledAlarm? {
+        return peek()?.also { remove(it.id) }
+    }
+
+    /**
+     * Current time is [millis]. Alarms before this time are still returned by [peek] until they are removed.
+     */
+    fun advanceTo(millis: Long) {
+        // most implementations do not depend on the current time
+    }
+}
+
+/**
+ * [ScheduledAlarmQueue] backed by two binary heaps, one of them without [CalendarType.AUTOSILENCE] entries.
+ */
+class HeapAlarmQueue : ScheduledAlarmQueue {
+    private val queue: IndexedPriorityQueue<ScheduledAlarm> = IndexedPriorityQueue { it.id }
+
+    /** Same as [queue] without [CalendarType.AUTOSILENCE] entries, head is the next alarm shown to the user */
+    private val normalQueue: IndexedPriorityQueue<ScheduledAlarm> = IndexedPriorityQueue { it.id }
+
+    override fun put(alarm: ScheduledAlarm) {
+        queue.put(alarm)
+        if (alarm.type != CalendarType.AUTOSILENCE) {
+            normalQueue.put(alarm)
+        } else {
+            normalQueue.remove(alarm.id)
+        }
+    }
+
+    override fun remove(id: Int): ScheduledAlarm? {
+        normalQueue.remove(id)
+        return queue.remove(id)
+    }
+
+    override fun peek(): ScheduledAlarm? = queue.peek()
+
+    override fun peekNormal(): ScheduledAlarm? = normalQueue.peek()
+
+    override fun peek(count: Int, into: MutableList<ScheduledAlarm>) = queue.peek(count, into)
+
+    override fun isEmpty(): Boolean = queue.isEmpty()
+}
@@ -0,0 +1,92 @@
+package com.better.alarm.model
+
+import com.better.alarm.logger.Logger
+import com.better.alarm.model.AlarmsScheduler.ScheduledAlarm
+import io.reactivex.Scheduler
+import io.reactivex.schedulers.Schedulers
+import java.io.*
+
+/**
+ * Compact binary copy of the alarms which [AlarmsScheduler] has programmed in the RTC: id, type and trigger time,
+ * earliest first. [AlarmsScheduler] writes it whenever these have changed, so that after a cold start the alarms
+ * which are due can be found before the whole model is loaded. It also holds how many RTC slots were in use, so that
+ * a new process only cancels those.
+ *
+ * Files are written on the [io] scheduler, which must run the writes in order.
+ */
+class SchedulerSnapshot @JvmOverloads constructor(
+        private val file: File,
+        private val log: Logger,
+        private val io: Scheduler = Schedulers.trampoline()
+) {
+    data class Entry(val id: Int, val type: CalendarType, val millis: Long)
+
+    /** Replaces the snapshot, [alarms] must be ordered by trigger time, [slots] is the number of RTC slots in use */
+    fun write(alarms: List<ScheduledAlarm>, slots: Int) {
+        io.scheduleDirect { writeNow(alarms, slots) }
+    }
+
+    private fun writeNow(alarms: List<ScheduledAlarm>, slots: Int) {
+        val tmp = File(file.path + ".tmp")
+        try {
+            DataOutputStream(BufferedOutputStream(FileOutputStream(tmp))).use { out ->
+                out.writeInt(VERSION)
+                out.writeInt(slots)
+                out.writeInt(alarms.size)
+                alarms.forEach { alarm ->
+                    out.writeInt(alarm.id)
+                    out.writeByte(alarm.type.ordinal)
+                    out.writeLong(alarm.millis)
+                }
+            }
+            // rename is atomic, a reader never sees a partially written snapshot
+            if (!tmp.renameTo(file)) {
+                throw IOException("Failed to rename $tmp")
+            }
+        } catch (e: IOException) {
+            log.e("Failed to write $file", e)
+            tmp.delete()
+            // a stale snapshot would start the wrong alarms first
+            file.delete()
+        }
+    }
+
+    /** @return entries ordered by trigger time or an empty list if there is no valid snapshot */
+    fun read(): List<Entry> = readHeader { input -> readEntries(input) } ?: emptyList()
+
+    /** @return number of RTC slots in use when the snapshot was written or null if there is no valid snapshot */
+    fun slots(): Int? = readHeader { input -> input.readInt().takeIf { it > 0 } }
+
+    private fun <T> readHeader(block: (DataInputStream) -> T?): T? {
+        if (!file.exists()) return null
+        return try {
+            DataInputStream(BufferedInputStream(FileInputStream(file))).use { input ->
+                if (input.readInt() != VERSION) null else block(input)
+            }
+        } catch (e: IOException) {
+            null
+        }
+    }
+
+    private fun readEntries(input: DataInputStream): List<Entry>? {
+        input.readInt() // slots
+        val size = input.readInt()
+        if (size < 0 || size > file.length() / ENTRY_BYTES) return null
+        val types = CalendarType.values()
+        return List(size) {
+            val id = input.readInt()
+            val type = types.getOrNull(input.readByte().toInt()) ?: return null
+            Entry(id = id, type = type, millis = input.readLong())
+        }
+    }
+
+    /** @return ids of alarms which are due at [millis], these have probably woken up the process */
+    fun dueIds(millis: Long): List<Int> {
+        return read().takeWhile { it.millis <= millis }.map { it.id }
+    }
+
+    companion object {
+        private const val VERSION = 2
+        private const val ENTRY_BYTES = 4 + 1 + 8
+    }
+}
@@ -0,0 +1,235 @@
+package com.better.alarm.model
+
+import com.better.alarm.model.AlarmsScheduler.ScheduledAlarm
+
+/**
+ * [ScheduledAlarmQueue] backed by a hierarchical timing wheel with minute, hour and day wheels. Put and remove
+ * are O(1), finding the earliest alarm scans a constant number of slots and the entries of one slot. This is meant
+ * for setups with tens of thousands of alarms, where keeping a heap ordered costs more than it brings.
+ *
+ * Slots are aligned to the cursor, which is the current minute:
+ *  * minute wheel contains alarms of the current hour, alarms in the past are kept in the slot of the cursor
+ *  * hour wheel contains alarms of the later hours of the current day
+ *  * day wheel contains alarms of the next [DAYS] days
+ *  * everything later is kept in the overflow slot
+ *
+ * So all alarms on a wheel are before the alarms on the next wheel and slots of one wheel are ordered starting
+ * from the cursor. When the cursor moves on, slots of the coarser wheels are cascaded into the finer ones. When it
+ * moves back, because the wall clock was changed, the wheel is built again.
+ */
+class TimingWheelAlarmQueue : ScheduledAlarmQueue {
+    private class Node(val alarm: ScheduledAlarm) {
+        val minute: Long = alarm.millis / MINUTE_MILLIS
+        var slot: Slot? = null
+        var prev: Node? = null
+        var next: Node? = null
+    }
+
+    /** Intrusive doubly linked list, so that a node can be unlinked in O(1) */
+    private class Slot {
+        var head: Node? = null
+
+        fun isEmpty() = head == null
+
+        fun add(node: Node) {
+            node.slot = this
+            node.prev = null
+            node.next = head
+            head?.prev = node
+            head = node
+        }
+
+        fun unlink(node: Node) {
+            val prev = node.prev
+            val next = node.next
+            if (prev == null) head = next else prev.next = next
+            next?.prev = prev
+            node.slot = null
+            node.prev = null
+            node.next = null
+        }
+
+        /** Moves all nodes to [target] */
+        fun drainTo(target: MutableList<Node>) {
+            var node = head
+            while (node != null) {
+                val next = node.next
+                unlink(node)
+                target.add(node)
+                node = next
+            }
+        }
+
+        inline fun forEach(action: (ScheduledAlarm) -> Unit) {
+            var node = head
+            while (node != null) {
+                action(node.alarm)
+                node = node.next
+            }
+        }
+
+        /** @return earliest alarm of this slot which is matching the filter */
+        inline fun min(filter: (ScheduledAlarm) -> Boolean): ScheduledAlarm? {
+            var min: ScheduledAlarm? = null
+            var node = head
+            while (node != null) {
+                val alarm = node.alarm
+                if (filter(alarm) && (min == null || alarm < min)) {
+                    min = alarm
+                }
+                node = node.next
+            }
+            return min
+        }
+    }
+
+    private val minutes = Array(MINUTES) { Slot() }
+    private val hours = Array(HOURS) { Slot() }
+    private val days = Array(DAYS) { Slot() }
+    private val overflow = Slot()
+    private val nodes = HashMap<Int, Node>()
+    private val cascaded = ArrayList<Node>()
+
+    /**
+     * Current minute since epoch, set by [advanceTo]. Alarms which are put before that are placed once they are
+     * queried, with the cursor at the earliest of them, so they are not all kept in the slot of the cursor.
+     */
+    private var cursor: Long = -1
+
+    override fun put(alarm: ScheduledAlarm) {
+        remove(alarm.id)
+        val node = Node(alarm)
+        nodes[alarm.id] = node
+        if (cursor >= 0) {
+            place(node)
+        }
+    }
+
+    override fun remove(id: Int): ScheduledAlarm? {
+        val node = nodes.remove(id) ?: return null
+        node.slot?.unlink(node)
+        return node.alarm
+    }
+
+    override fun peek(): ScheduledAlarm? = first { true }
+
+    override fun peekNormal(): ScheduledAlarm? = first { it.type != CalendarType.AUTOSILENCE }
+
+    override fun isEmpty(): Boolean = nodes.isEmpty()
+
+    override fun advanceTo(millis: Long) {
+        val target = millis / MINUTE_MILLIS
+        if (cursor < 0 || nodes.isEmpty() || target < cursor || target - cursor > DAYS * MINUTES_IN_DAY) {
+            // nothing to cascade, clock went back or too far to step hour by hour, simply sort everything again
+            cursor = target
+            rebuild()
+            return
+        }
+
+        while (cursor < target) {
+            val nextHour = (cursor / MINUTES_IN_HOUR + 1) * MINUTES_IN_HOUR
+            if (target < nextHour) {
+                // still the same hour, alarms in the slots behind the cursor are in the past now
+                for (minute in cursor until target) {
+                    minutes[(minute % MINUTES).toInt()].drainTo(cascaded)
+                }
+                cursor = target
+            } else {
+                // everything on the minute wheel is in the past now
+                minutes.forEach { it.drainTo(cascaded) }
+                cursor = nextHour
+                if (cursor % MINUTES_IN_DAY == 0L) {
+                    days[((cursor / MINUTES_IN_DAY) % DAYS).toInt()].drainTo(cascaded)
+                    overflow.drainTo(cascaded)
+                }
+                hours[((cursor / MINUTES_IN_HOUR) % HOURS).toInt()].drainTo(cascaded)
+            }
+            placeCascaded()
+        }
+    }
+
+    private fun rebuild() {
+        cascaded.addAll(nodes.values)
+        cascaded.forEach { it.slot?.unlink(it) }
+        placeCascaded()
+    }
+
+    /** Places alarms which have been put before [advanceTo] */
+    private fun placePending() {
+        if (cursor >= 0 || nodes.isEmpty()) return
+        cursor = nodes.values.minBy { it.minute }!!.minute
+        rebuild()
+    }
+
+    /** @return most alarms kept in one slot, for tests */
+    internal fun maxSlotSize(): Int {
+        placePending()
+        return nodes.values.groupingBy { it.slot }.eachCount().values.max() ?: 0
+    }
+
+    private fun placeCascaded() {
+        cascaded.forEach { place(it) }
+        cascaded.clear()
+    }
+
+    private fun place(node: Node) {
+        val minute = maxOf(node.minute, cursor)
+        val slot = when {
+            minute / MINUTES_IN_HOUR == cursor / MINUTES_IN_HOUR -> minutes[(minute % MINUTES).toInt()]
+            minute / MINUTES_IN_DAY == cursor / MINUTES_IN_DAY -> hours[((minute / MINUTES_IN_HOUR) % HOURS).toInt()]
+            minute / MINUTES_IN_DAY - cursor / MINUTES_IN_DAY < DAYS -> days[((minute / MINUTES_IN_DAY) % DAYS).toInt()]
+            else -> overflow
+        }
+        slot.add(node)
+    }
+
+    override fun peek(count: Int, into: MutableList<ScheduledAlarm>) {
+        if (count <= 0) return
+        val start = into.size
+        visitSlots { slot ->
+            val from = into.size
+            slot.forEach { into.add(it) }
+            into.subList(from, into.size).sort()
+            into.size - start >= count
+        }
+        while (into.size - start > count) {
+            into.removeAt(into.size - 1)
+        }
+    }
+
+    private inline fun first(filter: (ScheduledAlarm) -> Boolean): ScheduledAlarm? {
+        var first: ScheduledAlarm? = null
+        visitSlots { slot ->
+            first = slot.min(filter)
+            first != null
+        }
+        return first
+    }
+
+    /** Visits non-empty slots from the earliest to the latest until [visit] returns true */
+    private inline fun visitSlots(visit: (Slot) -> Boolean) {
+        if (nodes.isEmpty()) return
+        placePending()
+        for (minute in (cursor % MINUTES).toInt() until MINUTES) {
+            if (!minutes[minute].isEmpty() && visit(minutes[minute])) return
+        }
+        for (hour in ((cursor / MINUTES_IN_HOUR) % HOURS).toInt() + 1 until HOURS) {
+            if (!hours[hour].isEmpty() && visit(hours[hour])) return
+        }
+        val today = cursor / MINUTES_IN_DAY
+        for (day in today + 1 until today + DAYS) {
+            val slot = days[(day % DAYS).toInt()]
+            if (!slot.isEmpty() && visit(slot)) return
+        }
+        if (!overflow.isEmpty()) visit(overflow)
+    }
+
+    companion object {
+        private const val MINUTE_MILLIS = 60 * 1000L
+        private const val MINUTES = 60
+        private const val HOURS = 24
+        private const val DAYS = 64
+        private const val MINUTES_IN_HOUR = 60L
+        private const val MINUTES_IN_DAY = 24 * 60L
+    }
+}
@@ -0,0 +1,94 @@
+package com.better.alarm.model
+
+import java.util.*
+
+/**
+ * Offsets of a [TimeZone] with the transitions of the current and the next year precomputed. Offset lookups
+ * and local wall time conversions are a binary search in [transitions], outside of the range the zone is asked.
+ *
+ * After a time zone change all alarms are recalculated with the same rules, which are resolved only once.
+ */
+class ZoneOffsets private constructor(val zone: TimeZone, private val from: Long, private val to: Long) {
+    /** Instants at which the offset changes, ascending */
+    private val transitions: LongArray
+
+    /** offsets[i] is valid before transitions[i], the last one after the last transition */
+    private val offsets: IntArray
+
+    init {
+        val foundTransitions = ArrayList<Long>()
+        val foundOffsets = ArrayList<Int>()
+        var offset = zone.getOffset(from)
+        foundOffsets.add(offset)
+        var time = from
+        while (time < to) {
+            val next = minOf(time + HOUR, to)
+            val nextOffset = zone.getOffset(next)
+            if (nextOffset != offset) {
+                foundTransitions.add(findTransition(time, next, offset))
+                foundOffsets.add(nextOffset)
+                offset = nextOffset
+            }
+            time = next
+        }
+        transitions = foundTransitions.toLongArray()
+        offsets = foundOffsets.toIntArray()
+    }
+
+    /** Bisects to the first millisecond in ([before], [after]] which does not have [offsetBefore] */
+    private fun findTransition(before: Long, after: Long, offsetBefore: Int): Long {
+        var low = before
+        var high = after
+        while (high - low > 1) {
+            val mid = (low + high) ushr 1
+            if (zone.getOffset(mid) == offsetBefore) low = mid else high = mid
+        }
+        return high
+    }
+
+    /** Same as [TimeZone.getOffset] */
+    fun offsetAt(utc: Long): Int {
+        if (utc < from || utc >= to) return zone.getOffset(utc)
+        val index = Arrays.binarySearch(transitions, utc)
+        return offsets[if (index >= 0) index + 1 else -index - 1]
+    }
+
+    /**
+     * Local wall time to epoch millis the same way as lenient [GregorianCalendar]: gaps use the offset before the
+     * transition, overlaps the one after it. Assumes that there is at most one transition within a day around [wall].
+     */
+    fun wallToUtc(wall: Long): Long {
+        val offsetBefore = offsetAt(wall - DAY)
+        val offsetAfter = offsetAt(wall + DAY)
+        val afterTransition = wall - offsetAfter
+        return if (offsetAt(afterTransition) == offsetAfter) afterTransition else wall - offsetBefore
+    }
+
+    companion object {
+        private const val HOUR = 60 * 60 * 1000L
+        private const val DAY = 24 * HOUR
+
+        @Volatile
+        private var cached: ZoneOffsets? = null
+
+        /**
+         * @return offsets of the [zone] covering the year of [now] and the next one, they are only computed again
+         * if the zone or the year changes
+         */
+        @JvmStatic
+        fun forZone(zone: TimeZone, now: Long): ZoneOffsets {
+            val current = cached
+            if (current != null && now >= current.from && now < current.to && current.zone.id == zone.id && current.zone.rawOffset == zone.rawOffset) {
+                return current
+            }
+            val yearStart = Calendar.getInstance(zone).apply {
+                timeInMillis = now
+                set(get(Calendar.YEAR), Calendar.JANUARY, 1, 0, 0, 0)
+                set(Calendar.MILLISECOND, 0)
+            }
+            val from = yearStart.timeInMillis
+            yearStart.add(Calendar.YEAR, 2)
+            return ZoneOffsets(zone.clone() as TimeZone, from, yearStart.timeInMillis).also { cached = it }
+        }
+    }
+}
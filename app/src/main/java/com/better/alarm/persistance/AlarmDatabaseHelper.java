@@ -34,6 +34,7 @@ import com.better.alarm.logger.Logger;
 public class AlarmDatabaseHelper extends SQLiteOpenHelper {
     private static final String DATABASE_NAME = "alarms.db";
     private static final int DATABASE_VERSION = 5;
+    private static AlarmDatabaseHelper sInstance;
     private final Logger log;
 
     public AlarmDatabaseHelper(Context context, Logger log) {
@@ -41,6 +42,16 @@ public class AlarmDatabaseHelper extends SQLiteOpenHelper {
         this.log = log;
     }
 
+    /**
+     * Helper shared by the {@link AlarmProvider} and in-process writers, so that they use the same connection
+     */
+    public static synchronized AlarmDatabaseHelper getInstance(Context context, Logger log) {
+        if (sInstance == null) {
+            sInstance = new AlarmDatabaseHelper(context.getApplicationContext(), log);
+        }
+        return sInstance;
+    }
+
     @Override
     public void onCreate(SQLiteDatabase db) {
         // @formatter:off
@@ -0,0 +1,202 @@
+package com.better.alarm.persistance
+
+import com.better.alarm.model.AlarmActiveRecord
+import java.io.*
+
+/**
+ * Append-only log of alarm changes. Every record holds only the fields which differ from the previous version of
+ * the alarm, so a state transition is one small sequential write instead of a row update. [replay] folds the log
+ * into the latest value of every changed field, which is then written to the database and the log is cleared.
+ *
+ * A record is [id][mask][fields of the mask, in the order of the bits]. A record which was cut off by a crash or
+ * cannot be read is ignored together with everything after it, records before it are applied completely.
+ *
+ * Appends only hand the records to the OS. [flush] syncs them to the disk and closes the file, it is called once per
+ * batch of changes, so several appends share one sync. Until the journal is replayed the database holds older values
+ * of the journaled alarms, [AlarmProvider] and other readers of the database see those.
+ */
+class AlarmJournal(private val file: File) : Flushable {
+    /** Latest journaled values of one alarm, fields which have not been journaled are null */
+    class Entry(val id: Int) {
+        var isDeleted = false
+        var isEnabled: Boolean? = null
+        var hour: Int? = null
+        var minutes: Int? = null
+        var daysOfWeek: Int? = null
+        var isVibrate: Boolean? = null
+        var isPrealarm: Boolean? = null
+        var label: String? = null
+        var hasAlert = false
+        var alert: String? = null
+        var nextTime: Long? = null
+        var state: String? = null
+
+        /** false if no field has been journaled, e.g. for a deleted alarm */
+        val hasColumns: Boolean
+            get() = isEnabled != null || hour != null || minutes != null || daysOfWeek != null || isVibrate != null
+                    || isPrealarm != null || label != null || hasAlert || nextTime != null || state != null
+
+        /** Takes the fields which have been journaled in [newer] */
+        internal fun merge(newer: Entry) {
+            newer.isEnabled?.let { isEnabled = it }
+            newer.hour?.let { hour = it }
+            newer.minutes?.let { minutes = it }
+            newer.daysOfWeek?.let { daysOfWeek = it }
+            newer.isVibrate?.let { isVibrate = it }
+            newer.isPrealarm?.let { isPrealarm = it }
+            newer.label?.let { label = it }
+            if (newer.hasAlert) {
+                hasAlert = true
+                alert = newer.alert
+            }
+            newer.nextTime?.let { nextTime = it }
+            newer.state?.let { state = it }
+        }
+    }
+
+    private val buffer = ByteArrayOutputStream(64)
+    private val record = DataOutputStream(buffer)
+    private var out: FileOutputStream? = null
+
+    /** Appends the fields of [current] which differ from [previous], all of them if there is no previous */
+    fun append(previous: AlarmActiveRecord?, current: AlarmActiveRecord) {
+        buffer.reset()
+        if (encode(previous, current)) {
+            write()
+        }
+    }
+
+    /** Appends several changes with one write, see [append] */
+    fun append(changes: List<Pair<AlarmActiveRecord?, AlarmActiveRecord>>) {
+        buffer.reset()
+        var changed = false
+        changes.forEach { (previous, current) ->
+            changed = encode(previous, current) || changed
+        }
+        if (changed) {
+            write()
+        }
+    }
+
+    /** @return false if nothing has changed and there is no record */
+    private fun encode(previous: AlarmActiveRecord?, current: AlarmActiveRecord): Boolean {
+        val mask = current.changedFields(previous)
+        if (mask == 0) return false
+
+        record.writeInt(current.id)
+        record.writeShort(mask)
+        if (mask and ENABLED != 0) record.writeBoolean(current.isEnabled)
+        if (mask and HOUR != 0) record.writeByte(current.hour)
+        if (mask and MINUTES != 0) record.writeByte(current.minutes)
+        if (mask and DAYS_OF_WEEK != 0) record.writeByte(current.daysOfWeek.coded)
+        if (mask and VIBRATE != 0) record.writeBoolean(current.isVibrate)
+        if (mask and PREALARM != 0) record.writeBoolean(current.isPrealarm)
+        if (mask and LABEL != 0) record.writeUTF(current.label)
+        if (mask and ALERT != 0) {
+            val alert = current.alarmtone.persistedString
+            record.writeBoolean(alert != null)
+            if (alert != null) record.writeUTF(alert)
+        }
+        if (mask and NEXT_TIME != 0) record.writeLong(current.nextTime.timeInMillis)
+        if (mask and STATE != 0) record.writeUTF(current.state)
+        return true
+    }
+
+    fun appendDelete(id: Int) {
+        buffer.reset()
+        record.writeInt(id)
+        record.writeShort(DELETED)
+        write()
+    }
+
+    /** Writes the records in one go, so that a crash can only cut off the end of the log */
+    private fun write() {
+        val out = out ?: FileOutputStream(file, true).also { out = it }
+        buffer.writeTo(out)
+    }
+
+    /**
+     * Syncs the records appended since the last flush and closes the file. The log is synced like the database
+     * transaction it replaces, otherwise a power loss could drop changes which the app has already shown.
+     */
+    override fun flush() {
+        val out = out ?: return
+        this.out = null
+        out.use { it.fd.sync() }
+    }
+
+    /** @return size of the log in bytes */
+    fun size(): Long = file.length()
+
+    /** @return latest values of all journaled alarms, in the order in which they were journaled first */
+    fun replay(): Collection<Entry> {
+        val entries = LinkedHashMap<Int, Entry>()
+        if (!file.exists()) return entries.values
+        DataInputStream(BufferedInputStream(FileInputStream(file))).use { input ->
+            try {
+                while (true) {
+                    // a record is only applied once it has been read completely
+                    val record = read(input) ?: break
+                    if (record.isDeleted) {
+                        entries[record.id] = record
+                    } else {
+                        val entry = entries[record.id]?.takeUnless { it.isDeleted }
+                        if (entry == null) entries[record.id] = record else entry.merge(record)
+                    }
+                }
+            } catch (e: IOException) {
+                // end of the log, a record which was cut off or garbage after it
+            }
+        }
+        return entries.values
+    }
+
+    /** @return next record or null if its mask is not one which [encode] or [appendDelete] write */
+    private fun read(input: DataInputStream): Entry? {
+        val entry = Entry(input.readInt())
+        val mask = input.readUnsignedShort()
+        when {
+            mask == DELETED -> entry.isDeleted = true
+            mask == 0 || mask and ALL_FIELDS.inv() != 0 -> return null
+            else -> {
+                if (mask and ENABLED != 0) entry.isEnabled = input.readBoolean()
+                if (mask and HOUR != 0) entry.hour = input.readUnsignedByte()
+                if (mask and MINUTES != 0) entry.minutes = input.readUnsignedByte()
+                if (mask and DAYS_OF_WEEK != 0) entry.daysOfWeek = input.readUnsignedByte()
+                if (mask and VIBRATE != 0) entry.isVibrate = input.readBoolean()
+                if (mask and PREALARM != 0) entry.isPrealarm = input.readBoolean()
+                if (mask and LABEL != 0) entry.label = input.readUTF()
+                if (mask and ALERT != 0) {
+                    entry.hasAlert = true
+                    entry.alert = if (input.readBoolean()) input.readUTF() else null
+                }
+                if (mask and NEXT_TIME != 0) entry.nextTime = input.readLong()
+                if (mask and STATE != 0) entry.state = input.readUTF()
+            }
+        }
+        return entry
+    }
+
+    /** Drops all records, call after the replayed values have been stored */
+    fun clear() {
+        out?.close()
+        out = null
+        FileOutputStream(file).close()
+    }
+
+    companion object {
+        // the mask of a record holds the changed fields of AlarmActiveRecord
+        private const val ENABLED = AlarmActiveRecord.ENABLED
+        private const val HOUR = AlarmActiveRecord.HOUR
+        private const val MINUTES = AlarmActiveRecord.MINUTES
+        private const val DAYS_OF_WEEK = AlarmActiveRecord.DAYS_OF_WEEK
+        private const val VIBRATE = AlarmActiveRecord.VIBRATE
+        private const val PREALARM = AlarmActiveRecord.PREALARM
+        private const val LABEL = AlarmActiveRecord.LABEL
+        private const val ALERT = AlarmActiveRecord.ALERT
+        private const val NEXT_TIME = AlarmActiveRecord.NEXT_TIME
+        private const val STATE = AlarmActiveRecord.STATE
+        private const val ALL_FIELDS = AlarmActiveRecord.ALL_FIELDS
+        private const val DELETED = 1 shl 10
+    }
+}
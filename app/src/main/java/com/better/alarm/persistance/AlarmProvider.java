@@ -18,7 +18,10 @@
 package com.better.alarm.persistance;
 
 import android.content.ContentProvider;
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
 import android.content.ContentValues;
+import android.content.OperationApplicationException;
 import android.content.UriMatcher;
 import android.database.Cursor;
 import android.database.SQLException;
@@ -31,6 +34,8 @@ import com.better.alarm.BuildConfig;
 import com.better.alarm.logger.Logger;
 import com.better.alarm.util.Preconditions;
 
+import java.util.ArrayList;
+
 public class AlarmProvider extends ContentProvider {
     private AlarmDatabaseHelper mOpenHelper;
 
@@ -49,7 +54,7 @@ public class AlarmProvider extends ContentProvider {
     public boolean onCreate() {
         log = new Logger();
         //log.addLogWriter(LogcatLogWriter.create());
-        mOpenHelper = new AlarmDatabaseHelper(getContext(), log);
+        mOpenHelper = AlarmDatabaseHelper.getInstance(getContext(), log);
         return true;
     }
 
@@ -104,6 +109,22 @@ public class AlarmProvider extends ContentProvider {
         return count;
     }
 
+    /**
+     * Applies all operations in one transaction
+     */
+    @Override
+    public ContentProviderResult[] applyBatch(ArrayList<ContentProviderOperation> operations) throws OperationApplicationException {
+        SQLiteDatabase db = mOpenHelper.getWritableDatabase();
+        db.beginTransaction();
+        try {
+            ContentProviderResult[] results = super.applyBatch(operations);
+            db.setTransactionSuccessful();
+            return results;
+        } finally {
+            db.endTransaction();
+        }
+    }
+
     @Override
     public Uri insert(Uri url, ContentValues initialValues) {
         Preconditions.checkArgument(sURLMatcher.match(url) == ALARMS, "Invalid URL %s", url);
@@ -0,0 +1,63 @@
+package com.better.alarm.persistance
+
+import android.content.ContentProviderOperation
+import android.content.ContentUris
+import android.content.ContentValues
+import android.content.Context
+import android.provider.BaseColumns
+import java.util.*
+
+/**
+ * Writes rows of the alarms table. Values of an update only contain the columns which have to be written, values
+ * of an insert contain all columns including the id.
+ */
+interface AlarmStorage {
+    /** Inserts all rows in one transaction */
+    fun insert(rows: List<ContentValues>)
+
+    /** Updates all rows in one transaction */
+    fun update(rows: List<Pair<Int, ContentValues>>)
+
+    fun delete(id: Int)
+
+    /** @return highest id in the table or 0 if it is empty */
+    fun maxId(): Int
+}
+
+/**
+ * Writes through the [AlarmProvider], like any other client would.
+ */
+class ContentResolverAlarmStorage(private val mContext: Context) : AlarmStorage {
+    override fun insert(rows: List<ContentValues>) {
+        val operations = rows.mapTo(ArrayList()) { values ->
+            ContentProviderOperation.newInsert(Columns.contentUri())
+                    .withValues(values)
+                    .build()
+        }
+        mContext.contentResolver.applyBatch(Columns.contentUri().authority, operations)
+    }
+
+    override fun update(rows: List<Pair<Int, ContentValues>>) {
+        val operations = rows.mapTo(ArrayList()) { (id, values) ->
+            ContentProviderOperation.newUpdate(ContentUris.withAppendedId(Columns.contentUri(), id.toLong()))
+                    .withValues(values)
+                    .build()
+        }
+        mContext.contentResolver.applyBatch(Columns.contentUri().authority, operations)
+    }
+
+    override fun delete(id: Int) {
+        mContext.contentResolver.delete(ContentUris.withAppendedId(Columns.contentUri(), id.toLong()), "", null)
+    }
+
+    override fun maxId(): Int {
+        val cursor = mContext.contentResolver
+                .query(Columns.contentUri(), arrayOf(BaseColumns._ID), null, null, "${BaseColumns._ID} DESC")
+                ?: return 0
+        try {
+            return if (cursor.moveToFirst()) cursor.getInt(0) else 0
+        } finally {
+            cursor.close()
+        }
+    }
+}
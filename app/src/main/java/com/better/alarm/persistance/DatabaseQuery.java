@@ -2,6 +2,7 @@ package com.better.alarm.persistance;
 
 import android.content.ContentResolver;
 import android.database.Cursor;
+import android.provider.BaseColumns;
 
 import com.better.alarm.model.AlarmActiveRecord;
 import com.better.alarm.model.ContainerFactory;
@@ -9,6 +10,7 @@ import com.better.alarm.model.ContainerFactory;
 import org.reactivestreams.Publisher;
 
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.List;
 import java.util.concurrent.TimeUnit;
 
@@ -34,13 +36,40 @@ public class DatabaseQuery {
     }
 
     public Single<List<AlarmActiveRecord>> query() {
+        return select(null);
+    }
+
+    /**
+     * @return alarms with the given ids, e.g. those which are due on a cold start
+     */
+    public Single<List<AlarmActiveRecord>> query(Collection<Integer> ids) {
+        return select(BaseColumns._ID + " IN (" + join(ids) + ")");
+    }
+
+    /**
+     * @return all alarms but those with the given ids
+     */
+    public Single<List<AlarmActiveRecord>> queryExcept(Collection<Integer> ids) {
+        return select(BaseColumns._ID + " NOT IN (" + join(ids) + ")");
+    }
+
+    /** ids are numbers, so they can be a part of the selection */
+    private static String join(Collection<Integer> ids) {
+        StringBuilder joined = new StringBuilder();
+        for (Integer id : ids) {
+            if (joined.length() > 0) joined.append(',');
+            joined.append(id.intValue());
+        }
+        return joined.toString();
+    }
 
+    private Single<List<AlarmActiveRecord>> select(final String selection) {
         return Single
                 .create(new SingleOnSubscribe<Cursor>() {
                     @Override
                     public void subscribe(@NonNull SingleEmitter<Cursor> e) throws Exception {
                         final Cursor cursor = contentResolver
-                                .query(Columns.contentUri(), Columns.ALARM_QUERY_COLUMNS, null, null, Columns.DEFAULT_SORT_ORDER);
+                                .query(Columns.contentUri(), Columns.ALARM_QUERY_COLUMNS, selection, null, Columns.DEFAULT_SORT_ORDER);
                         Intrinsics.checkNotNull(cursor, "cursor");
                         e.onSuccess(cursor);
                     }
@@ -0,0 +1,58 @@
+package com.better.alarm.persistance
+
+import com.better.alarm.logger.Logger
+import java.io.*
+
+/**
+ * Hands out alarm ids from memory. Ids are reserved in ranges of [rangeSize] and only the end of the reserved range
+ * is written to the [file], so creating an alarm needs no database round-trip. Ids are never handed out twice, not
+ * even those of deleted alarms or of a range which was not used up before the process died, so an id in a pending
+ * intent or in a [com.better.alarm.model.SchedulerSnapshot] can not refer to another alarm.
+ *
+ * @param maxId highest id in the database, queried once before the first id is handed out
+ */
+class IdAllocator @JvmOverloads constructor(
+        private val file: File,
+        private val log: Logger,
+        private val maxId: () -> Int,
+        private val rangeSize: Int = 64
+) {
+    private var next = -1
+    private var end = -1
+
+    fun next(): Int {
+        if (next < 0) {
+            next = maxOf(readReserved(), maxId() + 1)
+            end = next
+        }
+        if (next == end) {
+            end = next + rangeSize
+            writeReserved(end)
+        }
+        return next++
+    }
+
+    private fun readReserved(): Int {
+        if (!file.exists()) return 0
+        return try {
+            DataInputStream(FileInputStream(file)).use { it.readInt() }
+        } catch (e: IOException) {
+            0
+        }
+    }
+
+    private fun writeReserved(end: Int) {
+        val tmp = File(file.path + ".tmp")
+        try {
+            DataOutputStream(FileOutputStream(tmp)).use { it.writeInt(end) }
+            // rename is atomic, a reader never sees a partially written range
+            if (!tmp.renameTo(file)) {
+                throw IOException("Failed to rename $tmp")
+            }
+        } catch (e: IOException) {
+            // ids are still above the highest one in the database, only ids of deleted alarms may be handed out again
+            log.e("Failed to reserve ids in $file", e)
+            tmp.delete()
+        }
+    }
+}
@@ -1,40 +1,108 @@
 package com.better.alarm.persistance
 
-import android.content.ContentUris
 import android.content.ContentValues
-import android.content.Context
 import android.database.Cursor
+import android.provider.BaseColumns
 import com.better.alarm.model.*
+import java.io.Flushable
 import java.util.*
 
 /**
  * Active record container for all alarm data.
  *
+ * Persisting is write-behind: records are only marked dirty and the latest version of each one is written by
+ * [flush], which [BatchingHandlerFactory] calls at the end of every message. All dirty records are written in one
+ * database transaction or, with a [journal], in one append to it. The journal is written to the database by
+ * [replayJournal] on startup and whenever it grows over [MAX_JOURNAL_BYTES]. Rows are written by the [storage],
+ * only the columns which differ from the last persisted version. New alarms get their id from [ids] and are
+ * inserted with the first [flush], also if there is a journal.
+ *
+ * @param contentValues creates the values of a row with the given capacity, android.jar has no implementation of
+ * [ContentValues] for unit tests
  * @author Yuriy
  */
-class PersistingContainerFactory(private val calendars: Calendars, private val mContext: Context) : ContainerFactory, AlarmActiveRecord.Persistence {
+class PersistingContainerFactory @JvmOverloads constructor(
+        private val calendars: Calendars,
+        private val storage: AlarmStorage,
+        private val ids: IdAllocator,
+        private val journal: AlarmJournal? = null,
+        private val contentValues: (Int) -> ContentValues = { ContentValues(it) }
+) : ContainerFactory, AlarmActiveRecord.Persistence, Flushable {
+    /** Last persisted version of every alarm, journal records only contain what has changed since */
+    private val persisted = HashMap<Int, AlarmActiveRecord>()
+
+    /** Latest versions of records which have not been written yet */
+    private val dirty = LinkedHashMap<Int, AlarmActiveRecord>()
 
     override fun create(c: Cursor): AlarmActiveRecord {
-        return fromCursor(c, calendars, this)
+        return fromCursor(c, calendars, this).also { persisted[it.id] = it }
     }
 
-    /** TODO there is a cheaper way to create an ID */
     override fun create(): AlarmActiveRecord {
-        return create(calendars, this) { container -> ContentUris.parseId(mContext.contentResolver.insert(Columns.contentUri(), container.createContentValues())).toInt() }
+        return create(calendars, this) { ids.next() }
     }
 
     /**
-     * Persist data in the database
+     * Persist data in the database with the next [flush]
      */
     override fun persist(container: AlarmActiveRecord) {
-        val values: ContentValues = container.createContentValues()
-        val uriWithAppendedId = ContentUris.withAppendedId(Columns.contentUri(), container.id.toLong())
-        mContext.contentResolver.update(uriWithAppendedId, values, null, null)
+        dirty[container.id] = container
+    }
+
+    /**
+     * Writes the latest version of every dirty record
+     */
+    override fun flush() {
+        if (dirty.isEmpty()) return
+        val (records, created) = dirty.values.partition { persisted.containsKey(it.id) }
+        dirty.clear()
+        if (created.isNotEmpty()) {
+            storage.insert(created.map { it.createContentValues().apply { put(BaseColumns._ID, it.id) } })
+            created.forEach { persisted[it.id] = it }
+        }
+        if (records.isEmpty()) return
+        if (journal != null) {
+            journal.append(records.map { persisted[it.id] to it })
+            journal.flush()
+            records.forEach { persisted[it.id] = it }
+            if (journal.size() > MAX_JOURNAL_BYTES) {
+                replayJournal()
+            }
+        } else {
+            val rows = records.mapNotNull { record ->
+                val fields = record.changedFields(persisted[record.id])
+                if (fields == 0) null else record.id to record.createContentValues(fields)
+            }
+            if (rows.isNotEmpty()) {
+                storage.update(rows)
+            }
+            records.forEach { persisted[it.id] = it }
+        }
     }
 
     override fun delete(container: AlarmActiveRecord) {
-        val uri = ContentUris.withAppendedId(Columns.contentUri(), container.id.toLong())
-        mContext.contentResolver.delete(uri, "", null)
+        dirty.remove(container.id)
+        storage.delete(container.id)
+        persisted.remove(container.id)
+        journal?.run {
+            appendDelete(container.id)
+            flush()
+        }
+    }
+
+    /**
+     * Writes the journaled changes to the database and clears the journal. Must be called on startup before alarms
+     * are queried, also to drop a record which was cut off by a crash before new ones are appended. Without a
+     * journal of its own the factory can still replay one which an earlier run has left.
+     */
+    @JvmOverloads
+    fun replayJournal(journal: AlarmJournal? = this.journal) {
+        if (journal == null) return
+        val rows = journal.replay().filter { !it.isDeleted && it.hasColumns }.map { it.id to it.createContentValues() }
+        if (rows.isNotEmpty()) {
+            storage.update(rows)
+        }
+        journal.clear()
     }
 
     private fun fromCursor(c: Cursor, calendars: Calendars, persistence: AlarmActiveRecord.Persistence): AlarmActiveRecord {
@@ -43,7 +111,7 @@ class PersistingContainerFactory(private val calendars: Calendars, private val m
                 isEnabled = c.getInt(Columns.ALARM_ENABLED_INDEX) == 1,
                 hour = c.getInt(Columns.ALARM_HOUR_INDEX),
                 minutes = c.getInt(Columns.ALARM_MINUTES_INDEX),
-                daysOfWeek = DaysOfWeek(c.getInt(Columns.ALARM_DAYS_OF_WEEK_INDEX)),
+                daysOfWeek = DaysOfWeek.of(c.getInt(Columns.ALARM_DAYS_OF_WEEK_INDEX)),
                 isVibrate = c.getInt(Columns.ALARM_VIBRATE_INDEX) == 1,
                 isPrealarm = c.getInt(Columns.ALARM_PREALARM_INDEX) == 1,
                 label = c.getString(Columns.ALARM_MESSAGE_INDEX) ?: "",
@@ -56,6 +124,9 @@ class PersistingContainerFactory(private val calendars: Calendars, private val m
     }
 
     companion object {
+        /** Journal records are a few dozen bytes, this is about a thousand state changes */
+        private const val MAX_JOURNAL_BYTES = 32 * 1024L
+
         val PERSISTENCE_STUB: AlarmActiveRecord.Persistence = object : AlarmActiveRecord.Persistence {
             override fun persist(activeRecord: AlarmActiveRecord) {
                 //STUB
@@ -75,7 +146,7 @@ class PersistingContainerFactory(private val calendars: Calendars, private val m
                     isEnabled = false,
                     hour = now.get(Calendar.HOUR_OF_DAY),
                     minutes = now.get(Calendar.MINUTE),
-                    daysOfWeek = DaysOfWeek(0),
+                    daysOfWeek = DaysOfWeek.of(0),
                     isVibrate = true,
                     isPrealarm = false,
                     label = "",
@@ -88,25 +159,42 @@ class PersistingContainerFactory(private val calendars: Calendars, private val m
 
             //generate a new id
             val id = idMapper(defaultActiveRecord)
-            //assign the id and return an object with it. TODO here we have an unnecessary DB flush
+            //assign the id and return an object with it, it is written once it is persisted
             val withId = defaultActiveRecord.alarmValue.copy(id = id)
             return defaultActiveRecord.copyAndPersist(alarmValue = withId, persistence = persistence)
         }
     }
 
-    private fun AlarmActiveRecord.createContentValues(): ContentValues {
-        return ContentValues(12).apply {
+    /** @param fields columns to write, see [AlarmActiveRecord.changedFields] */
+    private fun AlarmActiveRecord.createContentValues(fields: Int = AlarmActiveRecord.ALL_FIELDS): ContentValues {
+        return contentValues(Integer.bitCount(fields)).apply {
             // id
-            put(Columns.ENABLED, isEnabled)
-            put(Columns.HOUR, hour)
-            put(Columns.MINUTES, minutes)
-            put(Columns.DAYS_OF_WEEK, daysOfWeek.coded)
-            put(Columns.VIBRATE, isVibrate)
-            put(Columns.MESSAGE, label)
-            put(Columns.ALERT, alarmtone.persistedString)
-            put(Columns.PREALARM, isPrealarm)
-            put(Columns.ALARM_TIME, nextTime.timeInMillis)
-            put(Columns.STATE, state)
+            if (fields and AlarmActiveRecord.ENABLED != 0) put(Columns.ENABLED, isEnabled)
+            if (fields and AlarmActiveRecord.HOUR != 0) put(Columns.HOUR, hour)
+            if (fields and AlarmActiveRecord.MINUTES != 0) put(Columns.MINUTES, minutes)
+            if (fields and AlarmActiveRecord.DAYS_OF_WEEK != 0) put(Columns.DAYS_OF_WEEK, daysOfWeek.coded)
+            if (fields and AlarmActiveRecord.VIBRATE != 0) put(Columns.VIBRATE, isVibrate)
+            if (fields and AlarmActiveRecord.LABEL != 0) put(Columns.MESSAGE, label)
+            if (fields and AlarmActiveRecord.ALERT != 0) put(Columns.ALERT, alarmtone.persistedString)
+            if (fields and AlarmActiveRecord.PREALARM != 0) put(Columns.PREALARM, isPrealarm)
+            if (fields and AlarmActiveRecord.NEXT_TIME != 0) put(Columns.ALARM_TIME, nextTime.timeInMillis)
+            if (fields and AlarmActiveRecord.STATE != 0) put(Columns.STATE, state)
+        }
+    }
+
+    private fun AlarmJournal.Entry.createContentValues(): ContentValues {
+        val entry = this
+        return contentValues(12).apply {
+            entry.isEnabled?.let { put(Columns.ENABLED, it) }
+            entry.hour?.let { put(Columns.HOUR, it) }
+            entry.minutes?.let { put(Columns.MINUTES, it) }
+            entry.daysOfWeek?.let { put(Columns.DAYS_OF_WEEK, it) }
+            entry.isVibrate?.let { put(Columns.VIBRATE, it) }
+            entry.label?.let { put(Columns.MESSAGE, it) }
+            if (entry.hasAlert) put(Columns.ALERT, entry.alert)
+            entry.isPrealarm?.let { put(Columns.PREALARM, it) }
+            entry.nextTime?.let { put(Columns.ALARM_TIME, it) }
+            entry.state?.let { put(Columns.STATE, it) }
         }
     }
 }
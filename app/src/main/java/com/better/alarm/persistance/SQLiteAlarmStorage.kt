@@ -0,0 +1,94 @@
+package com.better.alarm.persistance
+
+import android.content.ContentValues
+import android.database.sqlite.SQLiteDatabase
+import android.database.sqlite.SQLiteStatement
+import java.util.*
+
+/**
+ * Writes to the database of the [AlarmProvider] directly, without URI matching and provider dispatch. Statements
+ * are compiled once per set of columns and reused. Observers of [Columns.contentUri] are notified once per write
+ * by [notifyChange], so external readers of the provider still see the changes.
+ *
+ * Statements are not thread safe, use from the model thread only.
+ */
+class SQLiteAlarmStorage(
+        private val database: () -> SQLiteDatabase,
+        private val notifyChange: () -> Unit
+) : AlarmStorage {
+    private val inserts = HashMap<List<String>, SQLiteStatement>()
+    private val updates = HashMap<List<String>, SQLiteStatement>()
+    private var deleteStatement: SQLiteStatement? = null
+
+    override fun insert(rows: List<ContentValues>) {
+        inTransaction { db ->
+            rows.forEach { values ->
+                val columns = values.columns()
+                val statement = inserts.getOrPut(columns) {
+                    db.compileStatement("INSERT INTO alarms (${columns.joinToString()}) VALUES (${columns.joinToString { "?" }})")
+                }
+                statement.bind(columns, values)
+                check(statement.executeInsert() >= 0) { "Failed to insert row" }
+            }
+        }
+    }
+
+    override fun update(rows: List<Pair<Int, ContentValues>>) {
+        inTransaction { db ->
+            rows.forEach { (id, values) ->
+                val columns = values.columns()
+                val statement = updates.getOrPut(columns) {
+                    db.compileStatement("UPDATE alarms SET ${columns.joinToString { "$it = ?" }} WHERE _id = ?")
+                }
+                statement.bind(columns, values)
+                statement.bindLong(columns.size + 1, id.toLong())
+                statement.executeUpdateDelete()
+            }
+        }
+    }
+
+    private inline fun inTransaction(block: (SQLiteDatabase) -> Unit) {
+        val db = database()
+        db.beginTransaction()
+        try {
+            block(db)
+            db.setTransactionSuccessful()
+        } finally {
+            db.endTransaction()
+        }
+        notifyChange()
+    }
+
+    override fun delete(id: Int) {
+        val statement = deleteStatement ?: database().compileStatement("DELETE FROM alarms WHERE _id = ?").also { deleteStatement = it }
+        statement.bindLong(1, id.toLong())
+        statement.executeUpdateDelete()
+        notifyChange()
+    }
+
+    override fun maxId(): Int {
+        val statement = database().compileStatement("SELECT MAX(_id) FROM alarms")
+        try {
+            // null of an empty table is read as 0
+            return statement.simpleQueryForLong().toInt()
+        } finally {
+            statement.close()
+        }
+    }
+
+    /** Columns in the order of iteration, which is the same for the same set of columns */
+    private fun ContentValues.columns(): List<String> = valueSet().map { it.key }
+
+    private fun SQLiteStatement.bind(columns: List<String>, values: ContentValues) {
+        clearBindings()
+        columns.forEachIndexed { index, column ->
+            val value = values.get(column)
+            when (value) {
+                null -> bindNull(index + 1)
+                is Boolean -> bindLong(index + 1, if (value) 1 else 0)
+                is Number -> bindLong(index + 1, value.toLong())
+                else -> bindString(index + 1, value.toString())
+            }
+        }
+    }
+}
@@ -337,7 +337,7 @@ class AlarmsListActivity : FragmentActivity() {
                                     isEnabled = savedInstanceState.getBoolean("isEnabled"),
                                     hour = savedInstanceState.getInt("hour"),
                                     minutes = savedInstanceState.getInt("minutes"),
-                                    daysOfWeek = DaysOfWeek(savedInstanceState.getInt("daysOfWeek")),
+                                    daysOfWeek = DaysOfWeek.of(savedInstanceState.getInt("daysOfWeek")),
                                     isPrealarm = savedInstanceState.getBoolean("isPrealarm"),
                                     alarmtone = Alarmtone.fromString(savedInstanceState.getString("alarmtone")),
                                     label = savedInstanceState.getString("label"),
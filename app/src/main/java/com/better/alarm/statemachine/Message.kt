@@ -1,52 +1,96 @@
 package com.better.alarm.statemachine
 
-import com.better.alarm.util.Optional
-
 /**
  * Created by Yuriy on 07.03.2017.
+ *
+ * Messages are mutable and pooled like android.os.Message: [obtain] takes one from the pool, the [IHandler]
+ * [recycle]s it after it has been handled. Nobody may keep a reference to a message after that, use [copy].
  */
-data class Message
-(
-        val what: Int,
-        /** aux  */
-        val handler: IHandler,
-        val arg1: Int? = null,
-        val arg2: Int? = null,
-        val obj: Any? = null
-) {
-    fun what(): Int = what
+class Message private constructor() {
+    var what: Int = 0
+        private set
 
     /** aux  */
-    private fun handler(): IHandler = handler
+    private var handler: IHandler? = null
+
+    var arg1: Int = 0
+        private set
+
+    var arg2: Int = 0
+        private set
+
+    var obj: Any? = null
+        private set
+
+    /** next message in the pool */
+    private var next: Message? = null
 
-    fun arg1(): Optional<Int> = Optional.fromNullable(arg1)
+    fun what(): Int = what
+
+    fun arg1(): Int = arg1
 
-    fun arg2(): Optional<Int> = Optional.fromNullable(arg2)
+    fun arg2(): Int = arg2
 
-    fun obj(): Optional<Any> = Optional.fromNullable(obj)
+    fun obj(): Any? = obj
 
     fun send() {
-        handler().sendMessage(this)
+        handler!!.sendMessage(this)
     }
 
     fun sendAtFront() {
-        handler().sendMessageAtFrontOfQueue(this)
+        handler!!.sendMessageAtFrontOfQueue(this)
     }
 
     override fun toString(): String {
-        return "Message[$what]{${listOfNotNull(arg1, arg2, obj).joinToString(separator = ", ")}}]"
+        return "Message[$what]{$arg1, $arg2${obj?.let { ", $it" } ?: ""}}"
     }
 
     fun formatToString(converter: (Int) -> String): String {
-        return "Message[${converter.invoke(what)}]{${listOfNotNull(arg1, arg2, obj).joinToString(separator = ", ")}}"
+        return "Message[${converter.invoke(what)}]{$arg1, $arg2${obj?.let { ", $it" } ?: ""}}"
     }
 
-    fun withObj(obj: Any) = copy(obj = obj)
-    fun withArg1(arg1: Int) = copy(arg1 = arg1)
-    fun withArg2(arg2: Int) = copy(arg2 = arg2)
+    fun withObj(obj: Any?): Message = apply { this.obj = obj }
+    fun withArg1(arg1: Int): Message = apply { this.arg1 = arg1 }
+    fun withArg2(arg2: Int): Message = apply { this.arg2 = arg2 }
+
+    /** @return a message from the pool with the same contents, which can be kept after this one is recycled */
+    fun copy(): Message = obtain(what, handler!!).withArg1(arg1).withArg2(arg2).withObj(obj)
+
+    /** Returns the message to the pool, it must not be used afterwards */
+    fun recycle() {
+        what = 0
+        handler = null
+        arg1 = 0
+        arg2 = 0
+        obj = null
+        synchronized(poolLock) {
+            if (poolSize < MAX_POOL_SIZE) {
+                next = pool
+                pool = this
+                poolSize++
+            }
+        }
+    }
 
     companion object {
+        private const val MAX_POOL_SIZE = 50
+        private val poolLock = Any()
+        private var pool: Message? = null
+        private var poolSize = 0
+
+        /** @return a message from the pool or a new one if the pool is empty */
         @JvmStatic
-        fun create(what: Int, handler: IHandler) = Message(what, handler)
+        fun obtain(what: Int, handler: IHandler): Message {
+            val message = synchronized(poolLock) {
+                pool?.also {
+                    pool = it.next
+                    it.next = null
+                    poolSize--
+                }
+            } ?: Message()
+            message.what = what
+            message.handler = handler
+            return message
+        }
     }
 }
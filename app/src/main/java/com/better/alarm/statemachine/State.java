@@ -22,6 +22,12 @@ package com.better.alarm.statemachine;
  * The class for implementing states in a StateMachine
  */
 public class State implements IState {
+    /**
+     * Index in the compiled hierarchy of the state machine, see
+     * {@link StateMachine#start()}
+     */
+    int id = -1;
+
     /*
      * (non-Javadoc)
      *
@@ -61,14 +61,19 @@ public class StateMachine {
         private int mStateStackTopIndex = -1;
 
         /**
-         * A temporary stack used to manage the state stack
+         * All states indexed by {@link StateInfo#id}, assigned when the
+         * hierarchy is compiled
          */
-        private StateInfo mTempStateStack[];
+        private StateInfo mStatesById[];
 
         /**
-         * The top of the mTempStateStack
+         * Depth of the common ancestor for a transition, indexed by
+         * {@code fromId * mStatesById.length + toId}. This is the deepest
+         * proper ancestor of the destination which is the current state or one
+         * of its parents, -1 if there is none. States deeper than that are
+         * exited, the rest of the destination path is entered.
          */
-        private int mTempStateStackCount;
+        private int mCommonAncestorDepth[];
 
         /**
          * Reference to the StateMachine
@@ -119,6 +124,17 @@ public class StateMachine {
              */
             public boolean active;
 
+            /**
+             * Dense index of the state in the compiled hierarchy
+             */
+            public int id;
+
+            /**
+             * The state and all of its parents, the top most parent first. A
+             * state at depth d is at mStateStack[d] when it is active.
+             */
+            public StateInfo path[];
+
             /**
              * Convert StateInfo to string
              */
@@ -137,20 +153,27 @@ public class StateMachine {
          */
         @Override
         public final void handleMessage(Message msg) {
-            /** Save the current message */
+            /**
+             * Save the current message. Messages sent while this one is processed are handled right away by
+             * ImmediateHandlerFactory and recycled afterwards, so the outer message is current again after them.
+             */
+            Message previous = mMsg;
             mMsg = msg;
-
-            if (mIsConstructionCompleted) {
-                /** Normal path */
-                processMsg(msg);
-            } else if (!mIsConstructionCompleted && mMsg.what() == SM_INIT_CMD) {
-                /** Initial one time path. */
-                mIsConstructionCompleted = true;
-                boolean resume = msg.arg1().or(-100500) == 1;
-                invokeEnterMethods(0, resume);
-            } else throw new RuntimeException("StateMachine.handleMessage: "
-                    + "The start method not called, received msg: " + msg);
-            performTransitions();
+            try {
+                if (mIsConstructionCompleted) {
+                    /** Normal path */
+                    processMsg(msg);
+                } else if (!mIsConstructionCompleted && mMsg.what() == SM_INIT_CMD) {
+                    /** Initial one time path. */
+                    mIsConstructionCompleted = true;
+                    boolean resume = msg.arg1() == 1;
+                    invokeEnterMethods(0, resume);
+                } else throw new RuntimeException("StateMachine.handleMessage: "
+                        + "The start method not called, received msg: " + msg);
+                performTransitions();
+            } finally {
+                mMsg = previous;
+            }
         }
 
         /**
@@ -176,9 +199,10 @@ public class StateMachine {
                  * ancestor state of the enter/exit states. Then invoke the exit
                  * methods then the enter methods.
                  */
-                StateInfo commonStateInfo = setupTempStateStackWithStatesToEnter(destState);
-                invokeExitMethods(commonStateInfo);
-                int stateStackEnteringIndex = moveTempStateStackToStateStack();
+                StateInfo destStateInfo = compiledStateInfo(destState);
+                int commonDepth = mCommonAncestorDepth[mStateStack[mStateStackTopIndex].id * mStatesById.length + destStateInfo.id];
+                invokeExitMethods(commonDepth);
+                int stateStackEnteringIndex = moveToStateStack(destStateInfo.path, commonDepth + 1);
                 invokeEnterMethods(stateStackEnteringIndex, false);
 
                 /**
@@ -197,32 +221,75 @@ public class StateMachine {
          * @param resume
          */
         private final void completeConstruction(boolean resume) {
+            int maxDepth = compileHierarchy();
+            mStateStack = new StateInfo[maxDepth];
+            setupInitialStateStack();
+
             /**
-             * Determine the maximum depth of the state hierarchy so we can
-             * allocate the state stacks.
+             * Sending SM_INIT_CMD message to invoke enter methods
+             * asynchronously
              */
+            handler.obtainMessage(SM_INIT_CMD)
+                    .withArg1(resume ? 1 : 0)
+                    .sendAtFront();
+        }
+
+        /**
+         * Assign ids to states and precompute their paths and common ancestors,
+         * so that transitions do not have to look up or walk the hierarchy.
+         *
+         * @return the maximum depth of the state hierarchy to allocate the
+         * state stack
+         */
+        private final int compileHierarchy() {
+            int count = mStateInfo.size();
+            mStatesById = new StateInfo[count];
             int maxDepth = 0;
+            int id = 0;
             for (StateInfo si : mStateInfo.values()) {
+                si.id = id;
+                si.state.id = id;
+                mStatesById[id++] = si;
+
                 int depth = 0;
                 for (StateInfo i = si; i != null; depth++) {
                     i = i.parentStateInfo;
                 }
+                si.path = new StateInfo[depth];
+                StateInfo i = si;
+                for (int d = depth - 1; d >= 0; d--) {
+                    si.path[d] = i;
+                    i = i.parentStateInfo;
+                }
                 if (maxDepth < depth) {
                     maxDepth = depth;
                 }
             }
 
-            mStateStack = new StateInfo[maxDepth];
-            mTempStateStack = new StateInfo[maxDepth];
-            setupInitialStateStack();
+            mCommonAncestorDepth = new int[count * count];
+            for (StateInfo from : mStatesById) {
+                for (StateInfo to : mStatesById) {
+                    // paths share the common ancestors, the destination itself is always entered
+                    int depth = 0;
+                    while (depth < to.path.length - 1 && depth < from.path.length && from.path[depth] == to.path[depth]) {
+                        depth++;
+                    }
+                    mCommonAncestorDepth[from.id * count + to.id] = depth - 1;
+                }
+            }
+            return maxDepth;
+        }
 
-            /**
-             * Sending SM_INIT_CMD message to invoke enter methods
-             * asynchronously
-             */
-            handler.obtainMessage(SM_INIT_CMD)
-                    .withArg1(resume ? 1 : 0)
-                    .sendAtFront();
+        /**
+         * @return state info for a state which was added before the hierarchy was
+         * compiled
+         */
+        private final StateInfo compiledStateInfo(State state) {
+            StateInfo stateInfo = state.id >= 0 && state.id < mStatesById.length ? mStatesById[state.id] : null;
+            if (stateInfo == null || stateInfo.state != state) {
+                throw new RuntimeException("State " + state.getName() + " is not in " + mSm.getName());
+            }
+            return stateInfo;
         }
 
         /**
@@ -255,8 +322,8 @@ public class StateMachine {
          * Call the exit method for each state from the top of stack up to the
          * common ancestor state.
          */
-        private final void invokeExitMethods(StateInfo commonStateInfo) {
-            while (mStateStackTopIndex >= 0 && mStateStack[mStateStackTopIndex] != commonStateInfo) {
+        private final void invokeExitMethods(int commonDepth) {
+            while (mStateStackTopIndex > commonDepth) {
                 State curState = mStateStack[mStateStackTopIndex].state;
                 curState.exit();
                 mStateStack[mStateStackTopIndex].active = false;
@@ -300,67 +367,24 @@ public class StateMachine {
         }
 
         /**
-         * Move the contents of the temporary stack to the state stack reversing
-         * the order of the items on the temporary stack as they are moved.
+         * Put the states of the path starting at the depth onto the state
+         * stack, the states above are already there.
          *
          * @return index into mStateStack where entering needs to start
          */
-        private final int moveTempStateStackToStateStack() {
-            int startingIndex = mStateStackTopIndex + 1;
-            int i = mTempStateStackCount - 1;
-            int j = startingIndex;
-            while (i >= 0) {
-                mStateStack[j] = mTempStateStack[i];
-                j += 1;
-                i -= 1;
+        private final int moveToStateStack(StateInfo path[], int depth) {
+            for (int i = depth; i < path.length; i++) {
+                mStateStack[i] = path[i];
             }
-
-            mStateStackTopIndex = j - 1;
-            return startingIndex;
-        }
-
-        /**
-         * Setup the mTempStateStack with the states we are going to enter.
-         * <p>
-         * This is found by searching up the destState's ancestors for a state
-         * that is already active i.e. StateInfo.active == true. The destStae
-         * and all of its inactive parents will be on the TempStateStack as the
-         * list of states to enter.
-         *
-         * @return StateInfo of the common ancestor for the destState and
-         * current state or null if there is no common parent.
-         */
-        private final StateInfo setupTempStateStackWithStatesToEnter(State destState) {
-            /**
-             * Search up the parent list of the destination state for an active
-             * state. Use a do while() loop as the destState must always be
-             * entered even if it is active. This can happen if we are
-             * exiting/entering the current state.
-             */
-            mTempStateStackCount = 0;
-            StateInfo curStateInfo = mStateInfo.get(destState);
-            do {
-                mTempStateStack[mTempStateStackCount++] = curStateInfo;
-                curStateInfo = curStateInfo.parentStateInfo;
-            } while (curStateInfo != null && !curStateInfo.active);
-
-            return curStateInfo;
+            mStateStackTopIndex = path.length - 1;
+            return depth;
         }
 
         /**
          * Initialize StateStack to mInitialState.
          */
         private final void setupInitialStateStack() {
-            StateInfo curStateInfo = mStateInfo.get(mInitialState);
-            for (mTempStateStackCount = 0; curStateInfo != null; mTempStateStackCount++) {
-                mTempStateStack[mTempStateStackCount] = curStateInfo;
-                curStateInfo = curStateInfo.parentStateInfo;
-            }
-
-            // Empty the StateStack
-            mStateStackTopIndex = -1;
-
-            moveTempStateStackToStateStack();
+            moveToStateStack(compiledStateInfo(mInitialState).path, 0);
         }
 
         /**
@@ -438,7 +462,8 @@ public class StateMachine {
          */
         private final void deferMessage(Message msg) {
             log.d(msg + " in " + mSm.getName());
-            mDeferredMessages.add(msg);
+            // msg is recycled after it has been handled
+            mDeferredMessages.add(msg.copy());
         }
 
         /**
@@ -40,10 +40,10 @@ fun DaysOfWeek.showDialog(context: Context): Single<DaysOfWeek> {
                     }
                 }
                 .setPositiveButton(android.R.string.ok) { _, which ->
-                    emitter.onSuccess(DaysOfWeek(mutableDays))
+                    emitter.onSuccess(DaysOfWeek.of(mutableDays))
                 }
                 .setOnCancelListener {
-                    emitter.onSuccess(DaysOfWeek(mutableDays))
+                    emitter.onSuccess(DaysOfWeek.of(mutableDays))
                 }
                 .create()
                 .show()
@@ -13,10 +13,14 @@ import io.reactivex.subjects.PublishSubject
 import org.assertj.core.api.Assertions.assertThat
 import org.junit.Before
 import org.junit.Test
+import org.junit.runner.RunWith
+import org.junit.runners.Parameterized
 import org.mockito.Mockito.mock
+import java.io.File
 import java.util.*
 
-class AlarmSchedulerTest {
+@RunWith(Parameterized::class)
+class AlarmSchedulerTest(@Suppress("unused") private val queueName: String, private val createQueue: () -> ScheduledAlarmQueue) {
     private lateinit var stateNotifierMock: AlarmCore.IStateNotifier
     private lateinit var alarmSetterMock: SetterMock
     private lateinit var testScheduler: TestScheduler
@@ -46,27 +50,55 @@ class AlarmSchedulerTest {
         stateNotifierMock = mock<AlarmCore.IStateNotifier>(AlarmCore.IStateNotifier::class.java)
         alarmSetterMock = SetterMock()
         val calendars = Calendars { Calendar.getInstance() }
-        alarmsScheduler = AlarmsScheduler(alarmSetterMock, logger, store, prefs, calendars)
+        alarmsScheduler = AlarmsScheduler(alarmSetterMock, logger, store, prefs, calendars, createQueue())
+    }
+
+    companion object {
+        /** Every test using [AlarmsScheduler] runs with all [ScheduledAlarmQueue] implementations */
+        @JvmStatic
+        @Parameterized.Parameters(name = "{0}")
+        fun queues(): List<Array<Any>> = listOf(
+                arrayOf<Any>("heap", { HeapAlarmQueue() }),
+                arrayOf<Any>("timing wheel", { TimingWheelAlarmQueue() })
+        )
     }
 
     class SetterMock : AlarmSetter {
         var id: Int? = null
         var typeName: String? = null
         var calendar: Calendar? = null
+        /** how many times RTC alarm was reprogrammed */
+        var rtcCalls = 0
+        /** ids of alarms programmed in each slot */
+        val slots = mutableMapOf<Int, Int>()
 
-        override fun setUpRTCAlarm(id: Int, typeName: String, calendar: Calendar) {
+        override fun setUpRTCAlarm(slot: Int, id: Int, typeName: String, calendar: Calendar) {
+            rtcCalls++
+            slots[slot] = id
             this.id = id
             this.typeName = typeName
             this.calendar = calendar
         }
 
-        override fun removeRTCAlarm() {
+        /** slots which were cancelled while nothing was programmed in them */
+        val cancelledEmpty = mutableSetOf<Int>()
+
+        override fun removeRTCAlarm(slot: Int) {
+            if (slots.remove(slot) == null) {
+                cancelledEmpty.add(slot)
+                return
+            }
+            rtcCalls++
             id = null
             typeName = null
             calendar = null
         }
 
-        override fun fireNow(id: Int, typeName: String) {
+        /** ids of alarms fired with each broadcast */
+        val fired = mutableListOf<List<Int>>()
+
+        override fun fireNow(ids: IntArray, typeNames: Array<String>) {
+            fired.add(ids.toList())
         }
     }
 
@@ -144,6 +176,154 @@ class AlarmSchedulerTest {
         assertThat(alarmSetterMock.id).isEqualTo(1)
     }
 
+    @Test
+    fun `Next alarm skips autosilence timers at the head of the queue`() {
+        alarmsScheduler.start()
+        alarmsScheduler.setAlarm(
+                1,
+                CalendarType.NORMAL,
+                Calendar.getInstance().apply { add(Calendar.HOUR_OF_DAY, 2) },
+                createTestAlarmValue(1)
+        )
+
+        alarmsScheduler.setAlarm(
+                2,
+                CalendarType.AUTOSILENCE,
+                Calendar.getInstance().apply { add(Calendar.HOUR_OF_DAY, 1) },
+                createTestAlarmValue(2)
+        )
+
+        assertThat(alarmSetterMock.id).isEqualTo(2)
+        assertThat(store.next().value!!.get().alarm.id).isEqualTo(1)
+
+        alarmsScheduler.removeAlarm(1)
+
+        assertThat(store.next().value!!.isPresent()).isFalse()
+    }
+
+    @Test
+    fun `Batch reprograms RTC alarm once on commit`() {
+        alarmsScheduler.start()
+        alarmsScheduler.beginBatch()
+        (3 downTo 1).forEach { id ->
+            alarmsScheduler.setAlarm(
+                    id,
+                    CalendarType.NORMAL,
+                    Calendar.getInstance().apply { add(Calendar.HOUR_OF_DAY, id) },
+                    createTestAlarmValue(id)
+            )
+        }
+        alarmsScheduler.removeAlarm(1)
+
+        assertThat(alarmSetterMock.rtcCalls).isEqualTo(0)
+        assertThat(store.next().value!!.isPresent()).isFalse()
+
+        alarmsScheduler.commit()
+
+        assertThat(alarmSetterMock.rtcCalls).isEqualTo(1)
+        assertThat(alarmSetterMock.id).isEqualTo(2)
+        assertThat(store.next().value!!.get().alarm.id).isEqualTo(2)
+    }
+
+    @Test
+    fun `Multiple slots keep the earliest alarms programmed and only reprogram the difference`() {
+        val scheduler = AlarmsScheduler(alarmSetterMock, logger, store, prefs, Calendars { Calendar.getInstance() }, createQueue(), 3)
+        scheduler.start()
+        (1..5).forEach { id ->
+            scheduler.setAlarm(
+                    id,
+                    CalendarType.NORMAL,
+                    Calendar.getInstance().apply { add(Calendar.HOUR_OF_DAY, id) },
+                    createTestAlarmValue(id)
+            )
+        }
+        assertThat(alarmSetterMock.slots).isEqualTo(mapOf(0 to 1, 1 to 2, 2 to 3))
+        assertThat(alarmSetterMock.rtcCalls).isEqualTo(3)
+
+        // snoozing or removing alarms which are not programmed costs nothing
+        scheduler.setAlarm(5, CalendarType.NORMAL, Calendar.getInstance().apply { add(Calendar.HOUR_OF_DAY, 6) }, createTestAlarmValue(5))
+        scheduler.removeAlarm(4)
+        assertThat(alarmSetterMock.rtcCalls).isEqualTo(3)
+
+        // other alarms keep their slots
+        scheduler.removeAlarm(1)
+        assertThat(alarmSetterMock.slots).isEqualTo(mapOf(0 to 5, 1 to 2, 2 to 3))
+        assertThat(alarmSetterMock.rtcCalls).isEqualTo(4)
+
+        scheduler.removeAlarm(2)
+        scheduler.removeAlarm(3)
+        assertThat(alarmSetterMock.slots).isEqualTo(mapOf(0 to 5))
+        assertThat(alarmSetterMock.rtcCalls).isEqualTo(6)
+        assertThat(store.next().value!!.get().alarm.id).isEqualTo(5)
+    }
+
+    @Test
+    fun `Slots which are not programmed are cancelled on start`() {
+        // previous process used more slots or had alarms in slots which are empty now
+        val scheduler = AlarmsScheduler(alarmSetterMock, logger, store, prefs, Calendars { Calendar.getInstance() }, createQueue(), 2)
+        scheduler.setAlarm(1, CalendarType.NORMAL, Calendar.getInstance().apply { add(Calendar.HOUR_OF_DAY, 1) }, createTestAlarmValue(1))
+        scheduler.start()
+
+        assertThat(alarmSetterMock.slots).isEqualTo(mapOf(0 to 1))
+        assertThat(alarmSetterMock.cancelledEmpty).isEqualTo((1 until AlarmsScheduler.MAX_RTC_SLOTS).toSet())
+    }
+
+    @Test
+    fun `Only slots which the previous process used are cancelled on start`() {
+        val file = File.createTempFile("scheduler", "snapshot").apply { deleteOnExit() }
+        val snapshot = SchedulerSnapshot(file, logger).apply { write(emptyList(), 3) }
+        val scheduler = AlarmsScheduler(alarmSetterMock, logger, store, prefs, Calendars { Calendar.getInstance() }, createQueue(), 2, snapshot)
+        scheduler.setAlarm(1, CalendarType.NORMAL, Calendar.getInstance().apply { add(Calendar.HOUR_OF_DAY, 1) }, createTestAlarmValue(1))
+        scheduler.start()
+
+        assertThat(alarmSetterMock.slots).isEqualTo(mapOf(0 to 1))
+        assertThat(alarmSetterMock.cancelledEmpty).containsOnly(1, 2)
+        assertThat(snapshot.slots()).isEqualTo(2)
+    }
+
+    @Test
+    fun `Alarms in the past are fired with one broadcast in order`() {
+        (1..3).forEach { id ->
+            alarmsScheduler.setAlarm(
+                    id,
+                    CalendarType.NORMAL,
+                    Calendar.getInstance().apply { add(Calendar.MINUTE, id - 10) },
+                    createTestAlarmValue(id)
+            )
+        }
+        alarmsScheduler.setAlarm(4, CalendarType.NORMAL, Calendar.getInstance().apply { add(Calendar.MINUTE, -20) }, createTestAlarmValue(4))
+        alarmsScheduler.setAlarm(5, CalendarType.NORMAL, Calendar.getInstance().apply { add(Calendar.HOUR, 1) }, createTestAlarmValue(5))
+
+        alarmsScheduler.start()
+
+        assertThat(alarmSetterMock.fired).containsExactly(listOf(4, 1, 2, 3))
+        assertThat(alarmSetterMock.id).isEqualTo(5)
+    }
+
+    @Test
+    fun `Snapshot is written when the programmed alarms change`() {
+        val file = File.createTempFile("scheduler", "snapshot").apply { deleteOnExit() }
+        val snapshot = SchedulerSnapshot(file, logger)
+        val scheduler = AlarmsScheduler(alarmSetterMock, logger, store, prefs, Calendars { Calendar.getInstance() }, createQueue(), 2, snapshot)
+        scheduler.start()
+        (1..3).forEach { id ->
+            scheduler.setAlarm(
+                    id,
+                    CalendarType.NORMAL,
+                    Calendar.getInstance().apply { add(Calendar.HOUR_OF_DAY, 4 - id) },
+                    createTestAlarmValue(id)
+            )
+        }
+        scheduler.removeAlarm(2)
+        assertThat(snapshot.read().map { it.id }).containsExactly(3, 1)
+
+        // alarms after the programmed ones do not matter
+        file.delete()
+        scheduler.setAlarm(4, CalendarType.NORMAL, Calendar.getInstance().apply { add(Calendar.HOUR_OF_DAY, 5) }, createTestAlarmValue(4))
+        scheduler.removeAlarm(4)
+        assertThat(file.exists()).isFalse()
+    }
+
     private fun createTestAlarmValue(id: Int, label: String = id.toString()) =
             AlarmData(
                     id = id,
@@ -156,4 +336,4 @@ class AlarmSchedulerTest {
                     label = label,
                     minutes = 1
             )
-}
\ No newline at end of file
+}
\ No newline at end of file
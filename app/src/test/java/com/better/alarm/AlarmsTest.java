@@ -16,10 +16,13 @@ import com.better.alarm.model.AlarmCoreFactory;
 import com.better.alarm.model.AlarmValue;
 import com.better.alarm.model.Alarms;
 import com.better.alarm.model.AlarmsScheduler;
+import com.better.alarm.model.BatchingHandlerFactory;
 import com.better.alarm.model.CalendarType;
 import com.better.alarm.model.Calendars;
 import com.better.alarm.model.ContainerFactory;
 import com.better.alarm.model.DaysOfWeek;
+import com.better.alarm.model.ModelThread;
+import com.better.alarm.model.ScheduledAlarmQueue;
 import com.better.alarm.persistance.DatabaseQuery;
 import com.better.alarm.util.Optional;
 
@@ -29,18 +32,27 @@ import org.junit.Test;
 import org.junit.rules.TestRule;
 import org.junit.rules.TestWatcher;
 import org.junit.runner.Description;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Calendar;
+import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.Callable;
 
 import io.reactivex.Single;
 import io.reactivex.annotations.NonNull;
+import io.reactivex.disposables.Disposable;
+import io.reactivex.functions.Consumer;
 import io.reactivex.functions.Predicate;
+import io.reactivex.schedulers.Schedulers;
 import io.reactivex.schedulers.TestScheduler;
 import io.reactivex.subjects.BehaviorSubject;
 import io.reactivex.subjects.PublishSubject;
 import kotlin.collections.CollectionsKt;
+import kotlin.jvm.functions.Function0;
 
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.mockito.ArgumentMatchers.eq;
@@ -51,7 +63,9 @@ import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
+@RunWith(Parameterized.class)
 public class AlarmsTest {
+    private final Function0<ScheduledAlarmQueue> createQueue;
     private AlarmCore.IStateNotifier stateNotifierMock;
     private final AlarmSchedulerTest.SetterMock alarmSetterMock = new AlarmSchedulerTest.SetterMock();
     private TestScheduler testScheduler;
@@ -77,6 +91,15 @@ public class AlarmsTest {
         }
     };
 
+    @Parameterized.Parameters(name = "{0}")
+    public static List<Object[]> queues() {
+        return AlarmSchedulerTest.queues();
+    }
+
+    public AlarmsTest(String queueName, Function0<ScheduledAlarmQueue> createQueue) {
+        this.createQueue = createQueue;
+    }
+
     @Before
     public void setUp() {
         testScheduler = new TestScheduler();
@@ -99,19 +122,30 @@ public class AlarmsTest {
     }
 
     private Alarms createAlarms(DatabaseQuery query) {
-        AlarmsScheduler alarmsScheduler = new AlarmsScheduler(alarmSetterMock, logger, store, prefs, calendars);
-        Alarms alarms = new Alarms(alarmsScheduler, query, new AlarmCoreFactory(logger,
+        AlarmsScheduler alarmsScheduler = new AlarmsScheduler(alarmSetterMock, logger, store, prefs, calendars, createQueue.invoke());
+        Alarms alarms = createAlarms(query, alarmsScheduler);
+        alarmsScheduler.start();
+        return alarms;
+    }
+
+    private Alarms createAlarms(DatabaseQuery query, AlarmsScheduler alarmsScheduler) {
+        return new Alarms(alarmsScheduler, query, new AlarmCoreFactory(logger,
                 alarmsScheduler,
                 stateNotifierMock,
-                new TestHandlerFactory(testScheduler),
+                new BatchingHandlerFactory(new TestHandlerFactory(testScheduler), alarmsScheduler),
                 prefs,
                 store,
                 calendars
         ),
                 containerFactory,
-                logger);
-        alarmsScheduler.start();
-        return alarms;
+                logger,
+                new ModelThread(Schedulers.trampoline(), new Function0<Boolean>() {
+                    @Override
+                    public Boolean invoke() {
+                        return true;
+                    }
+                }),
+                prefs);
     }
 
     private Alarms createAlarms() {
@@ -317,6 +351,23 @@ public class AlarmsTest {
         });
     }
 
+    @Test
+    @SuppressWarnings("unchecked")
+    public void changingPrealarmDurationReprogramsRtcOnce() {
+        Alarms instance = createAlarms();
+        Alarm newAlarm = instance.createNewAlarm();
+        newAlarm.edit().withIsEnabled(true).withHour(7).withIsPrealarm(true).commit();
+        testScheduler.triggerActions();
+        int rtcCalls = alarmSetterMock.getRtcCalls();
+
+        // prealarm is removed when leaving the set state and set again when entering it
+        ((BehaviorSubject<Integer>) prefs.preAlarmDuration()).onNext(20);
+        testScheduler.triggerActions();
+
+        assertThat(alarmSetterMock.getRtcCalls() - rtcCalls).isEqualTo(1);
+        assertThat(alarmSetterMock.getTypeName()).isEqualTo("PREALARM");
+    }
+
     @Test
     public void changingAlarmWhileItIsFiredShouldReschedule() {
         //when
@@ -475,7 +526,7 @@ public class AlarmsTest {
 
         System.out.println("------------");
         // now we simulate it started all over again
-        alarmSetterMock.removeRTCAlarm();
+        alarmSetterMock.removeRTCAlarm(0);
 
         final DatabaseQuery query = mock(DatabaseQuery.class);
         when(query.query()).thenReturn(Single.just(containerFactory.getCreatedRecords()));
@@ -486,6 +537,78 @@ public class AlarmsTest {
         assertThat(alarmSetterMock.getId()).isEqualTo(record.getId());
     }
 
+    @Test
+    public void preAlarmDurationSubscriptionsDoNotGrowWithAlarms() {
+        final int[] subscriptions = {0};
+        prefs = new Prefs(
+                /* is24HoutFormat */ Single.just(true),
+                /* preAlarmDuration */ BehaviorSubject.createDefault(10).doOnSubscribe(new Consumer<Disposable>() {
+                    @Override
+                    public void accept(Disposable disposable) throws Exception {
+                        subscriptions[0]++;
+                    }
+                }),
+                /* snoozeDuration */ BehaviorSubject.createDefault(10),
+                /* listRowLayout */ BehaviorSubject.createDefault("bold"),
+                /* autoSilence */ BehaviorSubject.createDefault(10));
+        Alarms instance = createAlarms();
+        int afterStart = subscriptions[0];
+
+        for (int i = 0; i < 5; i++) {
+            instance.createNewAlarm().enable(true);
+        }
+        testScheduler.triggerActions();
+
+        assertThat(subscriptions[0]).isEqualTo(afterStart);
+    }
+
+    @Test
+    public void dueAlarmsAreStartedBeforeTheRest() {
+        Alarms instance = createAlarms();
+        Alarm due = instance.createNewAlarm();
+        Alarm other = instance.createNewAlarm();
+        testScheduler.triggerActions();
+
+        AlarmActiveRecord dueRecord = null;
+        AlarmActiveRecord otherRecord = null;
+        for (AlarmActiveRecord record : containerFactory.getCreatedRecords()) {
+            if (record.getId() == due.getId()) dueRecord = record;
+            if (record.getId() == other.getId()) otherRecord = record;
+        }
+        final AlarmActiveRecord rest = otherRecord;
+        final boolean[] restLoaded = {false};
+        final DatabaseQuery query = mock(DatabaseQuery.class);
+        when(query.query(Collections.singleton(due.getId()))).thenReturn(Single.just(Collections.singletonList(dueRecord)));
+        when(query.queryExcept(Collections.singleton(due.getId()))).thenReturn(Single.fromCallable(new Callable<List<AlarmActiveRecord>>() {
+            @Override
+            public List<AlarmActiveRecord> call() {
+                restLoaded[0] = true;
+                return Collections.singletonList(rest);
+            }
+        }));
+        final AlarmsScheduler alarmsScheduler = new AlarmsScheduler(alarmSetterMock, logger, store, prefs, calendars, createQueue.invoke());
+        Alarms newAlarms = createAlarms(query, alarmsScheduler);
+        final boolean[] started = {false};
+        newAlarms.start(Arrays.asList(due.getId(), due.getId()), testScheduler, new Runnable() {
+            @Override
+            public void run() {
+                started[0] = true;
+                alarmsScheduler.start();
+            }
+        });
+
+        assertThat(newAlarms.getAlarm(due.getId())).isNotNull();
+        assertThat(started[0]).isFalse();
+        // the other alarms are not even loaded yet
+        assertThat(restLoaded[0]).isFalse();
+
+        testScheduler.triggerActions();
+
+        assertThat(restLoaded[0]).isTrue();
+        assertThat(started[0]).isTrue();
+        assertThat(newAlarms.getAlarm(other.getId())).isNotNull();
+    }
+
     @Test
     public void snoozedAlarmsMustCanBeRescheduled() {
         //given
@@ -521,7 +644,7 @@ public class AlarmsTest {
 
         System.out.println("------------");
         // now we simulate it started all over again
-        alarmSetterMock.removeRTCAlarm();
+        alarmSetterMock.removeRTCAlarm(0);
 
         final DatabaseQuery query = mock(DatabaseQuery.class);
         when(query.query()).thenReturn(Single.just(containerFactory.getCreatedRecords()));
@@ -556,4 +679,4 @@ public class AlarmsTest {
         testScheduler.triggerActions();
         verify(stateNotifierMock, times(1)).broadcastAlarmState(eq(newAlarm.getId()), eq(Intents.ALARM_DISMISS_ACTION));
     }
-}
\ No newline at end of file
+}
\ No newline at end of file
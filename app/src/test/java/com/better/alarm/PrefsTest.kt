@@ -0,0 +1,68 @@
+package com.better.alarm
+
+import com.better.alarm.configuration.Prefs
+import com.better.alarm.logger.Logger
+import com.better.alarm.logger.SysoutLogWriter
+import io.reactivex.Single
+import io.reactivex.subjects.BehaviorSubject
+import org.assertj.core.api.Assertions.assertThat
+import org.junit.Ignore
+import org.junit.Test
+
+class PrefsTest {
+    /** Preferences are stored as strings, same as in AlarmApplication */
+    private val preAlarmDuration = BehaviorSubject.createDefault("30")
+    private val snoozeDuration = BehaviorSubject.createDefault("10")
+    private val autoSilence = BehaviorSubject.createDefault("10")
+    private var subscriptions = 0
+    private val prefs = Prefs(
+            _is24HoutFormat = Single.just(true),
+            preAlarmDuration = preAlarmDuration.map { it.toInt() }.doOnSubscribe { subscriptions++ },
+            snoozeDuration = snoozeDuration.map { it.toInt() },
+            listRowLayout = BehaviorSubject.createDefault("bold"),
+            autoSilence = autoSilence.map { it.toInt() })
+
+    @Test
+    fun `snapshot is updated before other subscribers are notified`() {
+        assertThat(prefs.snapshot()).isEqualTo(Prefs.Snapshot(preAlarmDuration = 30, snoozeDuration = 10, autoSilence = 10))
+
+        var seenBySubscriber = -1
+        prefs.preAlarmDuration().skip(1).subscribe { seenBySubscriber = prefs.snapshot().preAlarmDuration }
+        preAlarmDuration.onNext("15")
+
+        assertThat(seenBySubscriber).isEqualTo(15)
+    }
+
+    @Test
+    fun `snapshot follows every preference without subscribing on reads`() {
+        snoozeDuration.onNext("5")
+        autoSilence.onNext("20")
+        assertThat(prefs.snapshot()).isEqualTo(Prefs.Snapshot(preAlarmDuration = 30, snoozeDuration = 5, autoSilence = 20))
+
+        preAlarmDuration.onNext("-1")
+        repeat(100) { assertThat(prefs.snapshot().preAlarmDuration).isEqualTo(-1) }
+        // only the subscription of the snapshot itself
+        assertThat(subscriptions).isEqualTo(1)
+    }
+
+    @Ignore("benchmark, run manually")
+    @Test
+    fun `reading the snapshot is cheaper than blockingFirst`() {
+        val reads = 100000
+        var blockingNanos = Long.MAX_VALUE
+        var snapshotNanos = Long.MAX_VALUE
+        var sum = 0L
+        // best of a few interleaved rounds to leave out JIT warm-up and GC noise
+        repeat(5) {
+            var start = System.nanoTime()
+            repeat(reads) { sum += prefs.preAlarmDuration().blockingFirst() }
+            blockingNanos = minOf(blockingNanos, System.nanoTime() - start)
+
+            start = System.nanoTime()
+            repeat(reads) { sum += prefs.snapshot().preAlarmDuration }
+            snapshotNanos = minOf(snapshotNanos, System.nanoTime() - start)
+        }
+
+        Logger.create().addLogWriter(SysoutLogWriter()).d("per read: blockingFirst ${blockingNanos / reads}ns, snapshot ${snapshotNanos / reads}ns ($sum)")
+    }
+}
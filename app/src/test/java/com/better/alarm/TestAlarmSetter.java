@@ -12,17 +12,17 @@ import java.util.Calendar;
  */
 class TestAlarmSetter implements AlarmSetter {
     @Override
-    public void removeRTCAlarm() {
+    public void removeRTCAlarm(int slot) {
         //NOP
     }
 
     @Override
-    public void setUpRTCAlarm(int id, @NotNull String typeName, @NotNull Calendar calendar) {
+    public void setUpRTCAlarm(int slot, int id, @NotNull String typeName, @NotNull Calendar calendar) {
         //NOP
     }
 
     @Override
-    public void fireNow(int id, @NotNull String typeName) {
+    public void fireNow(@NotNull int[] ids, @NotNull String[] typeNames) {
         //NOP
     }
 }
@@ -31,18 +31,19 @@ class TestHandlerFactory implements HandlerFactory {
                     @Override
                     public void run() {
                         messageHandler.handleMessage(message);
+                        message.recycle();
                     }
                 });
             }
 
             @Override
             public Message obtainMessage(int what, Object obj) {
-                return new Message(what, this, null, null, obj);
+                return Message.obtain(what, this).withObj(obj);
             }
 
             @Override
             public Message obtainMessage(int what) {
-                return new Message(what, this, null, null, null);
+                return Message.obtain(what, this);
             }
         };
     }
@@ -0,0 +1,33 @@
+package com.better.alarm.model
+
+import com.better.alarm.persistance.PersistingContainerFactory
+import org.assertj.core.api.Assertions.assertThat
+import org.junit.Test
+import java.util.*
+
+class AlarmActiveRecordTest {
+    private fun record(id: Int) = AlarmActiveRecord(
+            nextTime = Calendar.getInstance().apply { timeInMillis = 1000L },
+            state = "DisabledState",
+            persistence = PersistingContainerFactory.PERSISTENCE_STUB,
+            alarmValue = AlarmData(id, false, 7, 30, false, Alarmtone.Sound("content://media/internal/audio/media/42"),
+                    true, "Wake up for the morning train", DaysOfWeek.of(0x1f)))
+
+    private fun Int.calendar() = Calendar.getInstance().apply { timeInMillis = this@calendar.toLong() }
+
+    @Test
+    fun `all fields are changed if there is no previous version`() {
+        assertThat(record(1).changedFields(null)).isEqualTo(AlarmActiveRecord.ALL_FIELDS)
+    }
+
+    @Test
+    fun `only changed fields are reported`() {
+        val previous = record(1)
+        val current = previous.withIsEnabled(true).withState("NormalSetState").withNextTime(2000.calendar())
+
+        assertThat(current.changedFields(previous))
+                .isEqualTo(AlarmActiveRecord.ENABLED or AlarmActiveRecord.STATE or AlarmActiveRecord.NEXT_TIME)
+        assertThat(current.changedFields(current)).isZero()
+        assertThat(current.withLabel("").changedFields(current)).isEqualTo(AlarmActiveRecord.LABEL)
+    }
+}
@@ -0,0 +1,97 @@
+package com.better.alarm.model
+
+import com.better.alarm.configuration.Prefs
+import com.better.alarm.interfaces.IAlarmsForecast.Occurrence
+import io.reactivex.Single
+import io.reactivex.subjects.BehaviorSubject
+import org.assertj.core.api.Assertions.assertThat
+import org.junit.Test
+import java.util.*
+
+class AlarmsForecastTest {
+    private val zone = TimeZone.getTimeZone("Europe/Berlin")
+    private val minute = 60 * 1000L
+    private val hour = 60 * minute
+    private val day = 24 * hour
+
+    /** Monday 07.01.2019 00:00 in Berlin */
+    private val monday = 1546815600000L
+
+    private val preAlarmDuration = BehaviorSubject.createDefault(30)
+
+    private val forecast = AlarmsForecast(
+            Prefs(
+                    _is24HoutFormat = Single.just(true),
+                    preAlarmDuration = preAlarmDuration,
+                    snoozeDuration = BehaviorSubject.createDefault(10),
+                    listRowLayout = BehaviorSubject.createDefault("bold"),
+                    autoSilence = BehaviorSubject.createDefault(10)),
+            Calendars { Calendar.getInstance(zone) })
+
+    private fun alarm(id: Int, hour: Int, minutes: Int, daysOfWeek: Int, isPrealarm: Boolean = false, isEnabled: Boolean = true) =
+            AlarmData(id = id, isEnabled = isEnabled, hour = hour, minutes = minutes, isPrealarm = isPrealarm,
+                    alarmtone = Alarmtone.Default(), isVibrate = false, label = "", daysOfWeek = DaysOfWeek(daysOfWeek))
+
+    @Test
+    fun `next occurrences of a weekday alarm skip the weekend`() {
+        val occurrences = forecast.occurrences(alarm(1, 7, 30, 0x1f), monday + 8 * hour).take(5).toList()
+
+        assertThat(occurrences.map { it.millis }).containsExactly(
+                monday + day + 7 * hour + 30 * minute,
+                monday + 2 * day + 7 * hour + 30 * minute,
+                monday + 3 * day + 7 * hour + 30 * minute,
+                monday + 4 * day + 7 * hour + 30 * minute,
+                monday + 7 * day + 7 * hour + 30 * minute)
+        assertThat(occurrences.map { it.type }.distinct()).containsExactly(CalendarType.NORMAL)
+    }
+
+    @Test
+    fun `alarm which does not repeat occurs once`() {
+        assertThat(forecast.occurrences(alarm(1, 7, 30, 0), monday).toList())
+                .containsExactly(Occurrence(1, CalendarType.NORMAL, monday + 7 * hour + 30 * minute))
+    }
+
+    @Test
+    fun `disabled alarm does not occur`() {
+        assertThat(forecast.occurrences(alarm(1, 7, 30, 0x7f, isEnabled = false), monday).toList()).isEmpty()
+    }
+
+    @Test
+    fun `prealarm occurs before the alarm`() {
+        assertThat(forecast.occurrences(alarm(1, 7, 30, 0x7f, isPrealarm = true), monday).take(3).toList()).containsExactly(
+                Occurrence(1, CalendarType.PREALARM, monday + 7 * hour),
+                Occurrence(1, CalendarType.NORMAL, monday + 7 * hour + 30 * minute),
+                Occurrence(1, CalendarType.PREALARM, monday + day + 7 * hour))
+    }
+
+    @Test
+    fun `prealarm which has already passed is skipped`() {
+        assertThat(forecast.occurrences(alarm(1, 7, 30, 0x7f, isPrealarm = true), monday + 7 * hour + 10 * minute).take(2).toList())
+                .containsExactly(
+                        Occurrence(1, CalendarType.NORMAL, monday + 7 * hour + 30 * minute),
+                        Occurrence(1, CalendarType.PREALARM, monday + day + 7 * hour))
+    }
+
+    @Test
+    fun `prealarm does not occur if it is turned off in settings`() {
+        preAlarmDuration.onNext(-1)
+        assertThat(forecast.occurrences(alarm(1, 7, 30, 0x7f, isPrealarm = true), monday).take(2).map { it.type }.toList())
+                .containsOnly(CalendarType.NORMAL)
+    }
+
+    @Test
+    fun `occurrences of all alarms in a week are merged in order`() {
+        val random = Random(15)
+        val alarms = (0 until 1000).map {
+            alarm(it, random.nextInt(24), random.nextInt(60), random.nextInt(128), isPrealarm = random.nextBoolean())
+        }
+        val from = monday + 13 * hour
+        val to = from + 7 * day
+
+        val expected = alarms.flatMap { alarm ->
+            forecast.occurrences(alarm, from).takeWhile { it.millis < to }.toList()
+        }.sortedWith(compareBy({ it.millis }, { it.id }))
+
+        assertThat(forecast.occurrences(alarms, from, to).toList()).isEqualTo(expected)
+    }
+}
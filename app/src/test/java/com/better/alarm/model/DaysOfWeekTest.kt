@@ -6,6 +6,7 @@ import org.assertj.core.api.Assertions.assertThat
 import org.junit.Test
 import org.mockito.Mockito.`when`
 import org.mockito.Mockito.mock
+import java.util.*
 
 class DaysOfWeekTest {
     private val context = mock(Context::class.java)
@@ -33,8 +34,48 @@ class DaysOfWeekTest {
         assertThat(DaysOfWeek(arrayOf(5, 6).fold(0) { acc, day -> acc or (1 shl day) }).toString(context, false)).isEqualTo("Sat, Sun")
     }
 
+    @Test
+    fun `instances are shared`() {
+        assertThat(DaysOfWeek.of(0x1f)).isSameAs(DaysOfWeek.of(0x1f)).isEqualTo(DaysOfWeek(0x1f))
+    }
+
+    @Test
+    fun `labels are cached`() {
+        val label = DaysOfWeek.of(0x1f).toString(context, false)
+        assertThat(DaysOfWeek.of(0x1f).toString(context, false)).isSameAs(label)
+    }
+
+    @Test
+    fun `labels are created again when locale changes`() {
+        val default = Locale.getDefault()
+        try {
+            assertThat(DaysOfWeek.of(1).toString(context, false)).isEqualTo("Monday")
+            Locale.setDefault(Locale.GERMAN)
+            DaysOfWeek.onLocaleChanged()
+            assertThat(DaysOfWeek.of(1).toString(context, false)).isEqualTo("Montag")
+        } finally {
+            Locale.setDefault(default)
+            DaysOfWeek.onLocaleChanged()
+        }
+    }
+
+    @Test
+    fun `boolean array can be modified without changing shared instances`() {
+        DaysOfWeek.of(1).booleanArray[1] = true
+        assertThat(DaysOfWeek.of(1).booleanArray).containsExactly(true, false, false, false, false, false, false)
+        assertThat(DaysOfWeek.of(1).isSet(0)).isTrue()
+        assertThat(DaysOfWeek.of(1).isSet(1)).isFalse()
+    }
+
+    @Test
+    fun `values out of range are not interned`() {
+        assertThat(DaysOfWeek.of(0x80).coded).isEqualTo(0x80)
+        assertThat(DaysOfWeek.of(-1).isRepeatSet).isTrue()
+        assertThat(DaysOfWeek.of(0x81).toString(context, false)).isEqualTo(DaysOfWeek.of(0x81).toString(context, false))
+    }
+
     @Test
     fun `getNextAlarm`() {
 
     }
-}
\ No newline at end of file
+}
\ No newline at end of file
@@ -0,0 +1,163 @@
+package com.better.alarm.model
+
+import com.better.alarm.statemachine.IHandler
+import com.better.alarm.statemachine.MessageHandler
+import io.reactivex.schedulers.TestScheduler
+import org.assertj.core.api.Assertions.assertThat
+import org.assertj.core.api.Assertions.assertThatThrownBy
+import org.junit.Test
+import org.mockito.Mockito.inOrder
+import org.mockito.Mockito.mock
+import org.mockito.Mockito.verify
+import java.io.Flushable
+
+class EventLoopHandlerFactoryTest {
+    private val scheduler = TestScheduler()
+    private val alarmsScheduler: IAlarmsScheduler = mock(IAlarmsScheduler::class.java)
+    private val persistence: Flushable = mock(Flushable::class.java)
+    private val wakeLock = object : EventLoopHandlerFactory.WakeLock {
+        var held = false
+        var acquired = 0
+        override fun acquire() {
+            held = true
+            acquired++
+        }
+
+        override fun release() {
+            held = false
+        }
+    }
+    private val factory = EventLoopHandlerFactory(ModelThread(scheduler) { true }, alarmsScheduler, persistence, wakeLock, batchSize = 3, budget = 10)
+    private val handled = mutableListOf<String>()
+
+    private fun mailbox(name: String, onMessage: (Int) -> Unit = {}): IHandler {
+        return factory.create(MessageHandler { msg ->
+            handled.add("$name${msg.what()}")
+            onMessage(msg.what())
+        })
+    }
+
+    @Test
+    fun `messages are handled after the caller returns`() {
+        val a = mailbox("a")
+        a.obtainMessage(1).send()
+        assertThat(handled).isEmpty()
+
+        scheduler.triggerActions()
+        assertThat(handled).containsExactly("a1")
+    }
+
+    @Test
+    fun `mailboxes are drained round-robin in batches`() {
+        val a = mailbox("a")
+        val b = mailbox("b")
+        (1..5).forEach { a.obtainMessage(it).send() }
+        (1..4).forEach { b.obtainMessage(it).send() }
+
+        scheduler.triggerActions()
+        assertThat(handled).containsExactly("a1", "a2", "a3", "b1", "b2", "b3", "a4", "a5", "b4")
+    }
+
+    @Test
+    fun `messages sent at front are handled first`() {
+        val a = mailbox("a")
+        a.obtainMessage(1).send()
+        // deferred messages are moved to front starting with the newest
+        a.obtainMessage(3).sendAtFront()
+        a.obtainMessage(2).sendAtFront()
+
+        scheduler.triggerActions()
+        assertThat(handled).containsExactly("a2", "a3", "a1")
+    }
+
+    @Test
+    fun `messages sent while handling go to the end of the mailbox`() {
+        lateinit var a: IHandler
+        a = mailbox("a") { what -> if (what == 1) a.obtainMessage(3).send() }
+        a.obtainMessage(1).send()
+        a.obtainMessage(2).send()
+
+        scheduler.triggerActions()
+        assertThat(handled).containsExactly("a1", "a2", "a3")
+    }
+
+    @Test
+    fun `message sent again while it is handled is queued as a copy`() {
+        var resent = false
+        lateinit var a: IHandler
+        a = factory.create(MessageHandler { msg ->
+            handled.add("a${msg.what()} ${msg.arg1()}")
+            if (!resent) {
+                resent = true
+                msg.send()
+            }
+        })
+        a.obtainMessage(1).withArg1(2).send()
+
+        scheduler.triggerActions()
+        assertThat(handled).containsExactly("a1 2", "a1 2")
+    }
+
+    @Test
+    fun `loop yields after the budget and reports metrics`() {
+        val mailboxes = (0 until 10).map { mailbox("m$it") }
+        mailboxes.forEach { mailbox -> (1..3).forEach { mailbox.obtainMessage(it).send() } }
+        assertThat(factory.metrics()).isEqualTo(EventLoopHandlerFactory.Metrics(handled = 0, drains = 0, pending = 30, maxPending = 30))
+
+        scheduler.triggerActions()
+        assertThat(handled).hasSize(30)
+        // budget of 10 messages is checked between batches, so 4 batches of 3 per run
+        assertThat(factory.metrics()).isEqualTo(EventLoopHandlerFactory.Metrics(handled = 30, drains = 3, pending = 0, maxPending = 30))
+    }
+
+    @Test
+    fun `wake lock is held until the mailboxes are empty`() {
+        val mailboxes = (0 until 10).map { mailbox("m$it") }
+        mailboxes.forEach { mailbox -> (1..3).forEach { mailbox.obtainMessage(it).send() } }
+        assertThat(wakeLock.held).isTrue()
+
+        scheduler.triggerActions()
+        assertThat(wakeLock.held).isFalse()
+        assertThat(wakeLock.acquired).isEqualTo(1)
+
+        mailboxes[0].obtainMessage(4).send()
+        assertThat(wakeLock.held).isTrue()
+        scheduler.triggerActions()
+        assertThat(wakeLock.held).isFalse()
+    }
+
+    @Test
+    fun `message which throws does not strand its mailbox or the wake lock`() {
+        val a = mailbox("a") { what -> if (what == 1) throw IllegalStateException("broken") }
+        val b = mailbox("b")
+        a.obtainMessage(1).send()
+        a.obtainMessage(2).send()
+        b.obtainMessage(1).send()
+
+        assertThatThrownBy { scheduler.triggerActions() }.isInstanceOf(IllegalStateException::class.java)
+        verify(alarmsScheduler).commit()
+        scheduler.triggerActions()
+        assertThat(handled).containsExactly("a1", "b1", "a2")
+        assertThat(wakeLock.held).isFalse()
+
+        a.obtainMessage(3).send()
+        scheduler.triggerActions()
+        assertThat(handled).endsWith("a3")
+    }
+
+    @Test
+    fun `every run of the loop is one batch`() {
+        val mailboxes = (0 until 10).map { mailbox("m$it") }
+        mailboxes.forEach { mailbox -> (1..3).forEach { mailbox.obtainMessage(it).send() } }
+
+        scheduler.triggerActions()
+        // 3 runs for 30 messages
+        val order = inOrder(alarmsScheduler, persistence)
+        repeat(3) {
+            order.verify(alarmsScheduler).beginBatch()
+            order.verify(alarmsScheduler).commit()
+            order.verify(persistence).flush()
+        }
+        order.verifyNoMoreInteractions()
+    }
+}
@@ -0,0 +1,57 @@
+package com.better.alarm.model
+
+import com.better.alarm.statemachine.IHandler
+import com.better.alarm.statemachine.MessageHandler
+import org.assertj.core.api.Assertions.assertThat
+import org.junit.Test
+
+class ImmediateHandlerFactoryTest {
+    private val handled = mutableListOf<Int>()
+    private lateinit var handler: IHandler
+
+    /** what of the messages sent while handling a message, negative are sent at front */
+    private fun handlerSending(sends: Map<Int, List<Int>>): IHandler {
+        handler = ImmediateHandlerFactory().create(MessageHandler { msg ->
+            handled.add(msg.what())
+            sends[msg.what()]?.forEach { what ->
+                if (what < 0) {
+                    handler.obtainMessage(-what).sendAtFront()
+                } else {
+                    handler.obtainMessage(what).send()
+                }
+            }
+        })
+        return handler
+    }
+
+    @Test
+    fun `message is handled immediately`() {
+        handlerSending(emptyMap()).obtainMessage(1).send()
+        assertThat(handled).containsExactly(1)
+    }
+
+    @Test
+    fun `messages sent while handling are handled right away`() {
+        handlerSending(mapOf(1 to listOf(2, 3), 2 to listOf(4))).obtainMessage(1).send()
+        assertThat(handled).containsExactly(1, 2, 4, 3)
+    }
+
+    @Test
+    fun `messages sent at front are handled right away as well`() {
+        handlerSending(mapOf(1 to listOf(2, 3, -4, -5), 3 to listOf(6, -7))).obtainMessage(1).send()
+        assertThat(handled).containsExactly(1, 2, 3, 6, 7, 4, 5)
+    }
+
+    @Test
+    fun `deferred messages are handled in the order in which they are moved to front`() {
+        // state machine sends deferred messages at front starting with the newest
+        handlerSending(mapOf(1 to listOf(2, -12, -11, -10))).obtainMessage(1).send()
+        assertThat(handled).containsExactly(1, 2, 12, 11, 10)
+    }
+
+    @Test
+    fun `many messages sent while handling are handled`() {
+        handlerSending(mapOf(1 to (2..10001).toList())).obtainMessage(1).send()
+        assertThat(handled).isEqualTo((1..10001).toList())
+    }
+}
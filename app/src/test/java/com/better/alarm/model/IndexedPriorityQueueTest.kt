@@ -0,0 +1,155 @@
+package com.better.alarm.model
+
+import com.better.alarm.logger.Logger
+import com.better.alarm.logger.SysoutLogWriter
+import org.assertj.core.api.Assertions.assertThat
+import org.junit.Ignore
+import org.junit.Test
+import java.util.*
+
+class IndexedPriorityQueueTest {
+    data class Entry(val id: Int, val time: Long) : Comparable<Entry> {
+        override fun compareTo(other: Entry): Int = time.compareTo(other.time)
+    }
+
+    private val queue = IndexedPriorityQueue<Entry> { it.id }
+
+    @Test
+    fun `elements are polled in order`() {
+        listOf(5L, 1L, 4L, 2L, 3L).forEachIndexed { id, time -> queue.put(Entry(id, time)) }
+
+        assertThat(generateSequence { queue.poll() }.map { it.time }.toList()).containsExactly(1L, 2L, 3L, 4L, 5L)
+        assertThat(queue.isEmpty()).isTrue()
+    }
+
+    @Test
+    fun `put replaces the element with the same id`() {
+        queue.put(Entry(1, 10))
+        queue.put(Entry(2, 20))
+
+        assertThat(queue.put(Entry(2, 5))).isEqualTo(Entry(2, 20))
+        assertThat(queue.size).isEqualTo(2)
+        assertThat(queue.peek()).isEqualTo(Entry(2, 5))
+
+        queue.put(Entry(2, 30))
+        assertThat(queue.peek()).isEqualTo(Entry(1, 10))
+        assertThat(queue[2]).isEqualTo(Entry(2, 30))
+    }
+
+    @Test
+    fun `remove by id keeps heap order`() {
+        (0 until 100).forEach { queue.put(Entry(it, ((it * 37) % 100).toLong())) }
+
+        (0 until 100 step 3).forEach { assertThat(queue.remove(it)).isNotNull() }
+
+        assertThat(queue.remove(0)).isNull()
+        assertThat(0 in queue).isFalse()
+        val polled = generateSequence { queue.poll() }.toList()
+        assertThat(polled.map { it.id }).doesNotContainAnyElementsOf((0 until 100 step 3).toList())
+        assertThat(polled.map { it.time }).isSorted
+    }
+
+    @Test
+    fun `peek returns the smallest elements in order without taking them`() {
+        val random = Random(3)
+        val times = (0 until 500).map { random.nextInt(10000).toLong() }
+        times.forEachIndexed { id, time -> queue.put(Entry(id, time)) }
+
+        listOf(1, 2, 7, 100, 500, Int.MAX_VALUE).forEach { count ->
+            val peeked = ArrayList<Entry>().apply { queue.peek(count, this) }
+            assertThat(peeked.map { it.time }).isEqualTo(times.sorted().take(count))
+        }
+        assertThat(queue.size).isEqualTo(500)
+    }
+
+    @Test
+    fun `behaves like PriorityQueue with removeAll on random operations`() {
+        val random = Random(42)
+        val legacy = PriorityQueue<Entry>()
+        repeat(10000) {
+            val id = random.nextInt(200)
+            legacy.removeAll { it.id == id }
+            queue.remove(id)
+            if (random.nextInt(4) != 0) {
+                val entry = Entry(id, random.nextInt(1000).toLong())
+                legacy.add(entry)
+                queue.put(entry)
+            }
+            assertThat(queue.size).isEqualTo(legacy.size)
+            assertThat(queue.peek()?.time).isEqualTo(legacy.peek()?.time)
+        }
+    }
+
+    /** Counts comparisons and id checks, which is what a replace costs */
+    private var operations = 0L
+
+    inner class CountingEntry(val id: Int, val time: Long) : Comparable<CountingEntry> {
+        override fun compareTo(other: CountingEntry): Int {
+            operations++
+            return time.compareTo(other.time)
+        }
+    }
+
+    @Test
+    fun `replace scales better than PriorityQueue with removeAll`() {
+        val size = 10000
+        val legacyQueue = PriorityQueue<CountingEntry>()
+        val legacy = countReplaces(size, { legacyQueue.add(it) }) { entry ->
+            legacyQueue.removeAll { operations++; it.id == entry.id }
+            legacyQueue.add(entry)
+        }
+        val indexedQueue = IndexedPriorityQueue<CountingEntry> { it.id }
+        val indexed = countReplaces(size, { indexedQueue.put(it) }) { indexedQueue.put(it) }
+
+        // removeAll visits every entry, put only one path of the heap, which is 14 levels with two comparisons each
+        assertThat(legacy).isGreaterThanOrEqualTo(size * 2000L)
+        assertThat(indexed).isLessThanOrEqualTo(2000L * (2 * 14 + 1))
+    }
+
+    /** Scheduler entries before they were converted to epoch millis */
+    data class CalendarEntry(val id: Int, val calendar: Calendar) : Comparable<CalendarEntry> {
+        override fun compareTo(other: CalendarEntry): Int = calendar.compareTo(other.calendar)
+    }
+
+    @Ignore("benchmark, run manually")
+    @Test
+    fun `epoch millis entries are ordered faster than Calendar entries`() {
+        val size = 10000
+        val alarmValue = AlarmData(0, true, 0, 0, false, Alarmtone.Default(), false, "", DaysOfWeek(0))
+        val times = Random(7).let { random -> (0 until size * 2).map { random.nextInt(Int.MAX_VALUE).toLong() * 1000 } }
+
+        // best of a few interleaved rounds to leave out JIT warm-up and GC noise
+        var calendarNanos = Long.MAX_VALUE
+        var millisNanos = Long.MAX_VALUE
+        repeat(10) {
+            calendarNanos = minOf(calendarNanos, measureFillReplaceDrain(size, times, IndexedPriorityQueue { it.id }) { id, millis ->
+                CalendarEntry(id, Calendar.getInstance().apply { timeInMillis = millis })
+            })
+            millisNanos = minOf(millisNanos, measureFillReplaceDrain(size, times, IndexedPriorityQueue { it.id }) { id, millis ->
+                AlarmsScheduler.ScheduledAlarm(id, millis, CalendarType.NORMAL, alarmValue)
+            })
+        }
+
+        Logger.create().addLogWriter(SysoutLogWriter()).d("$size entries: Calendar ${calendarNanos / 1000}us, epoch millis ${millisNanos / 1000}us")
+    }
+
+    private fun <T : Comparable<T>> measureFillReplaceDrain(size: Int, times: List<Long>, queue: IndexedPriorityQueue<T>, create: (Int, Long) -> T): Long {
+        val entries = times.mapIndexed { index, millis -> create(index % size, millis) }
+        val start = System.nanoTime()
+        entries.forEach { queue.put(it) }
+        var drained = 0
+        while (queue.poll() != null) drained++
+        val nanos = System.nanoTime() - start
+        assertThat(drained).isEqualTo(size)
+        return nanos
+    }
+
+    private fun countReplaces(size: Int, add: (CountingEntry) -> Any?, replace: (CountingEntry) -> Any?): Long {
+        val random = Random(size.toLong())
+        (0 until size).forEach { add(CountingEntry(it, random.nextLong())) }
+        val replacements = (0 until 2000).map { CountingEntry(random.nextInt(size), random.nextLong()) }
+        operations = 0
+        replacements.forEach { replace(it) }
+        return operations
+    }
+}
@@ -0,0 +1,33 @@
+package com.better.alarm.model
+
+import io.reactivex.schedulers.TestScheduler
+import org.assertj.core.api.Assertions.assertThat
+import org.junit.Test
+
+class ModelThreadTest {
+    private val scheduler = TestScheduler()
+    private var onModelThread = true
+    private val modelThread = ModelThread(scheduler) { onModelThread }
+
+    @Test
+    fun `work on the model thread runs inline`() {
+        var executed = false
+        modelThread.execute(Runnable { executed = true })
+
+        assertThat(executed).isTrue()
+    }
+
+    @Test
+    fun `work from other threads is posted to the model thread in order`() {
+        onModelThread = false
+        val executed = mutableListOf<Int>()
+        modelThread.execute(Runnable { executed.add(1) })
+        modelThread.execute(Runnable { executed.add(2) })
+
+        assertThat(executed).isEmpty()
+
+        scheduler.triggerActions()
+
+        assertThat(executed).containsExactly(1, 2)
+    }
+}
@@ -0,0 +1,116 @@
+package com.better.alarm.model
+
+import com.better.alarm.logger.Logger
+import com.better.alarm.logger.SysoutLogWriter
+import org.assertj.core.api.Assertions.assertThat
+import org.junit.Ignore
+import org.junit.Test
+import java.util.*
+
+class NextOccurrenceTest {
+    private val hour = 60 * 60 * 1000L
+
+    /** Calendar arithmetic which was used by AlarmCore before */
+    private fun legacyNextTime(now: Long, zone: TimeZone, hour: Int, minute: Int, daysOfWeek: Int): Long {
+        val c = Calendar.getInstance(zone).apply { timeInMillis = now }
+        c.set(Calendar.HOUR_OF_DAY, hour)
+        c.set(Calendar.MINUTE, minute)
+        c.set(Calendar.SECOND, 0)
+        c.set(Calendar.MILLISECOND, 0)
+        return legacyAdvance(c, now, zone, daysOfWeek)
+    }
+
+    private fun legacyAdvance(calendar: Calendar, now: Long, zone: TimeZone, daysOfWeek: Int): Long {
+        if (calendar.before(Calendar.getInstance(zone).apply { timeInMillis = now })) {
+            calendar.add(Calendar.DAY_OF_YEAR, 1)
+        }
+        val addDays = DaysOfWeek(daysOfWeek).getNextAlarm(calendar)
+        if (addDays > 0) {
+            calendar.add(Calendar.DAY_OF_WEEK, addDays)
+        }
+        return calendar.timeInMillis
+    }
+
+    /** Zones with DST gaps at midnight, 30 minute DST, southern hemisphere and no DST at all */
+    private val zones = listOf("Europe/Berlin", "America/New_York", "America/Sao_Paulo", "Australia/Lord_Howe",
+            "Asia/Tehran", "Pacific/Chatham", "America/St_Johns", "Asia/Kolkata", "UTC")
+            .map { TimeZone.getTimeZone(it) }
+
+    /** @return instants around every DST transition of 2018 in this zone */
+    private fun nowsAroundTransitions(zone: TimeZone): List<Long> {
+        val start = Calendar.getInstance(zone).apply { clear(); set(2018, Calendar.JANUARY, 1) }.timeInMillis
+        val transitions = (0 until 365 * 24).map { start + it * hour }.filter { zone.getOffset(it) != zone.getOffset(it - hour) }
+        return transitions.flatMap { transition -> (-20..20).map { transition + it * 73 * 60 * 1000L } }
+    }
+
+    @Test
+    fun `days until next set day are the same as DaysOfWeek getNextAlarm`() {
+        val calendar = Calendar.getInstance()
+        for (coded in 0 until 128) {
+            for (day in 0 until 7) {
+                calendar.set(Calendar.DAY_OF_WEEK, arrayOf(Calendar.MONDAY, Calendar.TUESDAY, Calendar.WEDNESDAY,
+                        Calendar.THURSDAY, Calendar.FRIDAY, Calendar.SATURDAY, Calendar.SUNDAY)[day])
+                assertThat(NextOccurrence.daysUntilNext(coded, day)).isEqualTo(DaysOfWeek(coded).getNextAlarm(calendar))
+            }
+        }
+    }
+
+    @Test
+    fun `next time is the same as with Calendar around DST transitions`() {
+        zones.forEach { zone ->
+            val nows = nowsAroundTransitions(zone).ifEmpty { (0 until 50).map { 1514764800000L + it * 7 * hour } }
+            nows.forEach { now ->
+                for (daysOfWeek in 0 until 128) {
+                    for (hourOfDay in 0 until 24) {
+                        for (minute in intArrayOf(0, 30)) {
+                            val expected = legacyNextTime(now, zone, hourOfDay, minute, daysOfWeek)
+                            val actual = NextOccurrence.nextTime(now, zone, hourOfDay, minute, daysOfWeek)
+                            if (actual != expected) {
+                                throw AssertionError("${zone.id} now=$now $hourOfDay:$minute days=$daysOfWeek expected $expected but was $actual")
+                            }
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    fun `prealarm is advanced the same way as with Calendar`() {
+        val random = Random(13)
+        zones.forEach { zone ->
+            nowsAroundTransitions(zone).forEach { now ->
+                repeat(50) {
+                    // prealarm up to a day before or after now
+                    val time = now + random.nextInt(48 * 60) * 60 * 1000L - 24 * hour
+                    val daysOfWeek = random.nextInt(128)
+                    val expected = legacyAdvance(Calendar.getInstance(zone).apply { timeInMillis = time }, now, zone, daysOfWeek)
+                    assertThat(NextOccurrence.advance(time, now, zone, daysOfWeek)).isEqualTo(expected)
+                }
+            }
+        }
+    }
+
+    @Ignore("benchmark, run manually")
+    @Test
+    fun `next time is cheaper than Calendar arithmetic`() {
+        val zone = TimeZone.getTimeZone("Europe/Berlin")
+        val now = 1553990400000L // 31.03.2019, DST starts
+        val runs = 20000
+        var legacyNanos = Long.MAX_VALUE
+        var nanos = Long.MAX_VALUE
+        var sum = 0L
+        // best of a few interleaved rounds to leave out JIT warm-up and GC noise
+        repeat(5) {
+            var start = System.nanoTime()
+            for (i in 0 until runs) sum += legacyNextTime(now + i * 60000L, zone, i % 24, i % 60, i % 128)
+            legacyNanos = minOf(legacyNanos, System.nanoTime() - start)
+
+            start = System.nanoTime()
+            for (i in 0 until runs) sum += NextOccurrence.nextTime(now + i * 60000L, zone, i % 24, i % 60, i % 128)
+            nanos = minOf(nanos, System.nanoTime() - start)
+        }
+
+        Logger.create().addLogWriter(SysoutLogWriter()).d("per calculation: Calendar ${legacyNanos / runs}ns, NextOccurrence ${nanos / runs}ns ($sum)")
+    }
+}
@@ -0,0 +1,58 @@
+package com.better.alarm.model
+
+import com.better.alarm.logger.Logger
+import org.assertj.core.api.Assertions.assertThat
+import org.junit.Rule
+import org.junit.Test
+import org.junit.rules.TemporaryFolder
+import java.io.File
+
+class SchedulerSnapshotTest {
+    @get:Rule
+    val folder = TemporaryFolder()
+
+    private val alarmValue = AlarmData(0, true, 0, 0, false, Alarmtone.Default(), false, "", DaysOfWeek(0))
+
+    private fun alarm(id: Int, millis: Long, type: CalendarType = CalendarType.NORMAL) =
+            AlarmsScheduler.ScheduledAlarm(id, millis, type, alarmValue)
+
+    @Test
+    fun `entries survive a round trip`() {
+        val snapshot = SchedulerSnapshot(folder.newFile(), Logger.create())
+        snapshot.write(listOf(alarm(3, 1000, CalendarType.PREALARM), alarm(1, 2000), alarm(2, 3000, CalendarType.AUTOSILENCE)), 3)
+
+        assertThat(snapshot.read()).containsExactly(
+                SchedulerSnapshot.Entry(3, CalendarType.PREALARM, 1000),
+                SchedulerSnapshot.Entry(1, CalendarType.NORMAL, 2000),
+                SchedulerSnapshot.Entry(2, CalendarType.AUTOSILENCE, 3000))
+        assertThat(snapshot.dueIds(2000)).containsExactly(3, 1)
+        assertThat(snapshot.slots()).isEqualTo(3)
+    }
+
+    @Test
+    fun `missing or corrupted snapshot is empty`() {
+        val file = folder.newFile()
+        assertThat(SchedulerSnapshot(folder.root.resolve("missing"), Logger.create()).read()).isEmpty()
+        assertThat(SchedulerSnapshot(folder.root.resolve("missing"), Logger.create()).slots()).isNull()
+
+        file.writeBytes(byteArrayOf(0, 0, 0, 2, 0, 0, 0, 1, 0x7f, 0, 0, 0))
+        assertThat(SchedulerSnapshot(file, Logger.create()).read()).isEmpty()
+    }
+
+    @Test
+    fun `failed rename is logged and leaves no snapshot`() {
+        // a directory which is not empty can not be replaced by the rename
+        val file = folder.newFolder().apply { resolve("child").createNewFile() }
+        val errors = mutableListOf<Any?>()
+        val snapshot = SchedulerSnapshot(file, object : Logger() {
+            override fun e(message: Any?, throwable: Throwable?) {
+                errors.add(message)
+            }
+        })
+        snapshot.write(listOf(alarm(1, 1000)), 1)
+
+        assertThat(errors).hasSize(1)
+        assertThat(snapshot.read()).isEmpty()
+        assertThat(File(file.path + ".tmp").exists()).isFalse()
+    }
+}
@@ -0,0 +1,98 @@
+package com.better.alarm.model
+
+import org.assertj.core.api.Assertions.assertThat
+import org.junit.Test
+import java.util.*
+
+class TimingWheelAlarmQueueTest {
+    private val alarmValue = AlarmData(0, true, 0, 0, false, Alarmtone.Default(), false, "", DaysOfWeek(0))
+    private val minute = 60 * 1000L
+    private val day = 24 * 60 * minute
+    private val start = 1546300800000L // 01.01.2019 00:00 UTC
+
+    private fun alarm(id: Int, millis: Long, type: CalendarType = CalendarType.NORMAL) =
+            AlarmsScheduler.ScheduledAlarm(id, millis, type, alarmValue)
+
+    @Test
+    fun `alarms on different wheels are ordered`() {
+        val wheel = TimingWheelAlarmQueue()
+        wheel.advanceTo(start)
+        wheel.put(alarm(1, start + 200 * day))
+        wheel.put(alarm(2, start + 3 * day))
+        wheel.put(alarm(3, start + 5 * 60 * minute))
+        wheel.put(alarm(4, start + 5 * minute + 1))
+        wheel.put(alarm(5, start + 5 * minute))
+        wheel.put(alarm(6, start - day))
+
+        assertThat(generateSequence { wheel.poll() }.map { it.id }.toList()).containsExactly(6, 5, 4, 3, 2, 1)
+    }
+
+    @Test
+    fun `alarms put before the clock is known are spread over the slots`() {
+        val wheel = TimingWheelAlarmQueue()
+        // on startup alarms are loaded in any order before the scheduler advances the wheel
+        wheel.put(alarm(0, start + 10 * day))
+        (1..240).forEach { wheel.put(alarm(it, start + 10 * day - it * 30 * minute)) }
+
+        // a day slot holds at most 48 alarms which are 30 minutes apart
+        assertThat(wheel.maxSlotSize()).isLessThanOrEqualTo(48)
+        assertThat(generateSequence { wheel.poll() }.map { it.id }.toList()).isEqualTo((240 downTo 0).toList())
+    }
+
+    @Test
+    fun `wheel is built again when the clock goes back`() {
+        val wheel = TimingWheelAlarmQueue()
+        wheel.advanceTo(start + 10 * day)
+        (1..240).forEach { wheel.put(alarm(it, start + 10 * day - it * 30 * minute)) }
+
+        wheel.advanceTo(start)
+
+        assertThat(wheel.maxSlotSize()).isLessThanOrEqualTo(48)
+        assertThat(generateSequence { wheel.poll() }.map { it.id }.toList()).isEqualTo((240 downTo 1).toList())
+    }
+
+    @Test
+    fun `peekNormal skips autosilence`() {
+        val wheel = TimingWheelAlarmQueue()
+        wheel.put(alarm(1, start + minute, CalendarType.AUTOSILENCE))
+        wheel.put(alarm(2, start + day))
+
+        assertThat(wheel.peek()!!.id).isEqualTo(1)
+        assertThat(wheel.peekNormal()!!.id).isEqualTo(2)
+    }
+
+    @Test
+    fun `behaves like a heap while time goes by`() {
+        val random = Random(42)
+        val heap = HeapAlarmQueue()
+        val wheel = TimingWheelAlarmQueue()
+        var now = start
+        repeat(20000) {
+            when (random.nextInt(10)) {
+                0 -> heap.remove(random.nextInt(500)).let { assertThat(wheel.remove(it?.id ?: -1)).isEqualTo(it) }
+                1 -> {
+                    // sometimes minutes, sometimes days
+                    now += if (random.nextBoolean()) random.nextInt(90) * minute else random.nextInt(100) * day / 10
+                    wheel.advanceTo(now)
+                    while (heap.peek()?.let { it.millis < now } == true) {
+                        assertThat(wheel.poll()).isEqualTo(heap.poll())
+                    }
+                }
+                else -> {
+                    val type = if (random.nextInt(5) == 0) CalendarType.AUTOSILENCE else CalendarType.NORMAL
+                    // unique times, otherwise order of equal alarms is not defined
+                    val alarm = alarm(random.nextInt(500), now + random.nextInt(150 * 24 * 60) * minute + it, type)
+                    heap.put(alarm)
+                    wheel.put(alarm)
+                }
+            }
+            assertThat(wheel.peek()).isEqualTo(heap.peek())
+            assertThat(wheel.peekNormal()).isEqualTo(heap.peekNormal())
+            if (it % 100 == 0) {
+                val fromHeap = ArrayList<AlarmsScheduler.ScheduledAlarm>().apply { heap.peek(5, this) }
+                val fromWheel = ArrayList<AlarmsScheduler.ScheduledAlarm>().apply { wheel.peek(5, this) }
+                assertThat(fromWheel).isEqualTo(fromHeap)
+            }
+        }
+    }
+}
@@ -0,0 +1,50 @@
+package com.better.alarm.model
+
+import org.assertj.core.api.Assertions.assertThat
+import org.junit.Test
+import java.util.*
+
+class ZoneOffsetsTest {
+    private val minute = 60 * 1000L
+    private val now = 1514764800000L // 01.01.2018 UTC
+
+    @Test
+    fun `offsets are the same as of the zone for two years`() {
+        listOf("Europe/Berlin", "America/Sao_Paulo", "Australia/Lord_Howe", "Pacific/Chatham", "Asia/Kolkata", "UTC")
+                .map { TimeZone.getTimeZone(it) }
+                .forEach { zone ->
+                    val offsets = ZoneOffsets.forZone(zone, now)
+                    // 7 minute steps hit every transition of whole and half hour zones within a few minutes
+                    for (time in now - 10 * 24 * 60 * minute until now + 2 * 365 * 24 * 60 * minute step 7 * minute) {
+                        if (offsets.offsetAt(time) != zone.getOffset(time)) {
+                            throw AssertionError("${zone.id} at $time expected ${zone.getOffset(time)} but was ${offsets.offsetAt(time)}")
+                        }
+                    }
+                }
+    }
+
+    @Test
+    fun `offsets are exact at the transition`() {
+        val zone = TimeZone.getTimeZone("Europe/Berlin")
+        val transition = 1521939600000L // 25.03.2018 01:00 UTC
+        val offsets = ZoneOffsets.forZone(zone, now)
+        assertThat(offsets.offsetAt(transition - 1)).isEqualTo(60 * 60 * 1000)
+        assertThat(offsets.offsetAt(transition)).isEqualTo(2 * 60 * 60 * 1000)
+    }
+
+    @Test
+    fun `offsets are reused for the same zone and year`() {
+        val zone = TimeZone.getTimeZone("Europe/Berlin")
+        val offsets = ZoneOffsets.forZone(zone, now)
+        assertThat(ZoneOffsets.forZone(TimeZone.getTimeZone("Europe/Berlin"), now + 100 * 24 * 60 * minute)).isSameAs(offsets)
+    }
+
+    @Test
+    fun `offsets are computed again when the zone changes`() {
+        val berlin = ZoneOffsets.forZone(TimeZone.getTimeZone("Europe/Berlin"), now)
+        val newYork = ZoneOffsets.forZone(TimeZone.getTimeZone("America/New_York"), now)
+        assertThat(newYork).isNotSameAs(berlin)
+        assertThat(newYork.zone.id).isEqualTo("America/New_York")
+        assertThat(newYork.offsetAt(now)).isEqualTo(-5 * 60 * 60 * 1000)
+    }
+}
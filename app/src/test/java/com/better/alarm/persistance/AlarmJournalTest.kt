@@ -0,0 +1,174 @@
+package com.better.alarm.persistance
+
+import com.better.alarm.model.AlarmActiveRecord
+import com.better.alarm.model.AlarmData
+import com.better.alarm.model.Alarmtone
+import com.better.alarm.model.DaysOfWeek
+import org.assertj.core.api.Assertions.assertThat
+import org.junit.Rule
+import org.junit.Test
+import org.junit.rules.TemporaryFolder
+import java.io.DataOutputStream
+import java.io.FileOutputStream
+import java.io.RandomAccessFile
+import java.util.*
+
+class AlarmJournalTest {
+    @get:Rule
+    val folder = TemporaryFolder()
+
+    private fun record(id: Int, state: String = "DisabledState", millis: Long = 1000L, label: String = "") = AlarmActiveRecord(
+            nextTime = Calendar.getInstance().apply { timeInMillis = millis },
+            state = state,
+            persistence = PersistingContainerFactory.PERSISTENCE_STUB,
+            alarmValue = AlarmData(id, false, 7, 30, true, Alarmtone.Silent(), true, label, DaysOfWeek.of(0x1f)))
+
+    @Test
+    fun `new alarm is journaled with all fields`() {
+        val journal = AlarmJournal(folder.newFile())
+        journal.append(null, record(1, label = "wake up"))
+
+        val entry = journal.replay().single()
+        assertThat(entry.id).isEqualTo(1)
+        assertThat(entry.isEnabled).isFalse()
+        assertThat(entry.hour).isEqualTo(7)
+        assertThat(entry.minutes).isEqualTo(30)
+        assertThat(entry.daysOfWeek).isEqualTo(0x1f)
+        assertThat(entry.isVibrate).isTrue()
+        assertThat(entry.isPrealarm).isTrue()
+        assertThat(entry.label).isEqualTo("wake up")
+        assertThat(entry.hasAlert).isTrue()
+        assertThat(entry.alert).isNull()
+        assertThat(entry.nextTime).isEqualTo(1000L)
+        assertThat(entry.state).isEqualTo("DisabledState")
+    }
+
+    @Test
+    fun `only changed fields are journaled and the latest value wins`() {
+        val file = folder.newFile()
+        val journal = AlarmJournal(file)
+        val snoozed = record(1, state = "SnoozedState", millis = 2000)
+        journal.append(record(1), snoozed)
+        val sizeOfOneChange = file.length()
+        journal.append(snoozed, record(1, state = "NormalSetState", millis = 3000))
+
+        // id, mask, next time and a short state
+        assertThat(sizeOfOneChange).isLessThan(32)
+        val entry = journal.replay().single()
+        assertThat(entry.state).isEqualTo("NormalSetState")
+        assertThat(entry.nextTime).isEqualTo(3000L)
+        assertThat(entry.label).isNull()
+        assertThat(entry.hasAlert).isFalse()
+    }
+
+    @Test
+    fun `unchanged alarm is not journaled`() {
+        val file = folder.newFile()
+        AlarmJournal(file).append(record(1), record(1))
+        assertThat(file.length()).isZero()
+    }
+
+    @Test
+    fun `deleted alarm drops earlier changes`() {
+        val journal = AlarmJournal(folder.newFile())
+        journal.append(record(1), record(1, state = "SnoozedState"))
+        journal.append(record(2), record(2, state = "SnoozedState"))
+        journal.appendDelete(1)
+
+        val entries = journal.replay().associateBy { it.id }
+        assertThat(entries.getValue(1).isDeleted).isTrue()
+        assertThat(entries.getValue(1).state).isNull()
+        assertThat(entries.getValue(2).state).isEqualTo("SnoozedState")
+    }
+
+    @Test
+    fun `record which was cut off is ignored`() {
+        val file = folder.newFile()
+        val journal = AlarmJournal(file)
+        journal.append(record(1), record(1, state = "SnoozedState"))
+        journal.append(record(1, state = "SnoozedState"), record(1, state = "FiredState"))
+        RandomAccessFile(file, "rw").use { it.setLength(it.length() - 3) }
+
+        assertThat(journal.replay().single().state).isEqualTo("SnoozedState")
+    }
+
+    @Test
+    fun `record which was cut off is not applied in part`() {
+        val file = folder.newFile()
+        val journal = AlarmJournal(file)
+        journal.append(record(1), record(1, state = "SnoozedState", millis = 2000))
+        // next time and state, cut off in the state
+        journal.append(record(1, state = "SnoozedState", millis = 2000), record(1, state = "FiredState", millis = 3000))
+        RandomAccessFile(file, "rw").use { it.setLength(it.length() - 3) }
+
+        val entry = journal.replay().single()
+        assertThat(entry.nextTime).isEqualTo(2000L)
+        assertThat(entry.state).isEqualTo("SnoozedState")
+    }
+
+    @Test
+    fun `records with unknown fields and everything after them are ignored`() {
+        listOf(0, 1 shl 11, (1 shl 10) or 1).forEach { mask ->
+            val file = folder.newFile()
+            val journal = AlarmJournal(file)
+            journal.append(record(1), record(1, state = "SnoozedState"))
+            DataOutputStream(FileOutputStream(file, true)).use {
+                it.writeInt(1)
+                it.writeShort(mask)
+                it.writeBoolean(true)
+            }
+            journal.append(record(1, state = "SnoozedState"), record(1, state = "FiredState"))
+
+            val entry = journal.replay().single()
+            assertThat(entry.isDeleted).isFalse()
+            assertThat(entry.isEnabled).isNull()
+            assertThat(entry.state).isEqualTo("SnoozedState")
+        }
+    }
+
+    @Test
+    fun `record which cannot be read is ignored`() {
+        val file = folder.newFile()
+        val journal = AlarmJournal(file)
+        journal.append(record(1), record(1, state = "SnoozedState"))
+        DataOutputStream(FileOutputStream(file, true)).use {
+            it.writeInt(1)
+            it.writeShort(AlarmActiveRecord.LABEL)
+            // malformed modified UTF-8
+            it.writeShort(2)
+            it.writeByte(0xff)
+            it.writeByte(0xff)
+        }
+
+        val entry = journal.replay().single()
+        assertThat(entry.label).isNull()
+        assertThat(entry.state).isEqualTo("SnoozedState")
+    }
+
+    @Test
+    fun `appends after a flush go to the same log`() {
+        val file = folder.newFile()
+        val journal = AlarmJournal(file)
+        journal.append(record(1), record(1, state = "SnoozedState"))
+        journal.flush()
+        val size = file.length()
+        journal.flush()
+        journal.append(record(2), record(2, state = "FiredState"))
+        journal.flush()
+
+        assertThat(size).isGreaterThan(0)
+        assertThat(journal.replay().map { it.state }).containsExactly("SnoozedState", "FiredState")
+    }
+
+    @Test
+    fun `cleared journal is empty and can be appended to`() {
+        val journal = AlarmJournal(folder.newFile())
+        journal.append(record(1), record(1, state = "SnoozedState"))
+        journal.clear()
+        assertThat(journal.replay()).isEmpty()
+        assertThat(journal.size()).isZero()
+
+        journal.append(record(2), record(2, state = "FiredState"))
+        assertThat(journal.replay().single().id).isEqualTo(2)
+    }
+}
@@ -0,0 +1,58 @@
+package com.better.alarm.persistance
+
+import com.better.alarm.logger.Logger
+import org.assertj.core.api.Assertions.assertThat
+import org.junit.Rule
+import org.junit.Test
+import org.junit.rules.TemporaryFolder
+
+class IdAllocatorTest {
+    @get:Rule
+    val folder = TemporaryFolder()
+
+    private val file by lazy { folder.root.resolve("alarms.ids") }
+    private val errors = mutableListOf<Any?>()
+    private val log = object : Logger() {
+        override fun e(message: Any?, throwable: Throwable?) {
+            errors.add(message)
+        }
+    }
+
+    @Test
+    fun `ids start above the highest one in the database`() {
+        var queries = 0
+        val ids = IdAllocator(file, log, { queries++; 41 }, rangeSize = 4)
+        assertThat(List(6) { ids.next() }).containsExactly(42, 43, 44, 45, 46, 47)
+        assertThat(queries).isEqualTo(1)
+    }
+
+    @Test
+    fun `ids of a reserved range are not handed out again after a restart`() {
+        val ids = IdAllocator(file, log, { 0 }, rangeSize = 64)
+        assertThat(List(3) { ids.next() }).containsExactly(1, 2, 3)
+
+        assertThat(IdAllocator(file, log, { 3 }, rangeSize = 64).next()).isEqualTo(65)
+    }
+
+    @Test
+    fun `database wins if it has higher ids than the reserved range`() {
+        IdAllocator(file, log, { 0 }, rangeSize = 8).next()
+        assertThat(IdAllocator(file, log, { 100 }, rangeSize = 8).next()).isEqualTo(101)
+    }
+
+    @Test
+    fun `broken metadata falls back to the database`() {
+        file.writeBytes(byteArrayOf(1))
+        assertThat(IdAllocator(file, log, { 5 }).next()).isEqualTo(6)
+    }
+
+    @Test
+    fun `failed reservation is logged and ids are still handed out`() {
+        // a directory which is not empty can not be replaced by the rename
+        file.mkdir()
+        file.resolve("child").createNewFile()
+
+        assertThat(IdAllocator(file, log, { 5 }).next()).isEqualTo(6)
+        assertThat(errors).hasSize(1)
+    }
+}
@@ -0,0 +1,210 @@
+package com.better.alarm.persistance
+
+import android.content.ContentValues
+import android.database.Cursor
+import com.better.alarm.logger.Logger
+import com.better.alarm.model.AlarmActiveRecord
+import com.better.alarm.model.AlarmData
+import com.better.alarm.model.Alarmtone
+import com.better.alarm.model.BatchingHandlerFactory
+import com.better.alarm.model.Calendars
+import com.better.alarm.model.DaysOfWeek
+import com.better.alarm.model.IAlarmsScheduler
+import com.better.alarm.model.ImmediateHandlerFactory
+import com.better.alarm.statemachine.IHandler
+import com.better.alarm.statemachine.MessageHandler
+import org.assertj.core.api.Assertions.assertThat
+import org.junit.Rule
+import org.junit.Test
+import org.junit.rules.TemporaryFolder
+import org.mockito.Mockito.*
+import org.mockito.stubbing.Answer
+import java.util.*
+
+class PersistingContainerFactoryTest {
+    @get:Rule
+    val folder = TemporaryFolder()
+
+    private val journal by lazy { AlarmJournal(folder.newFile()) }
+    private val storage = mock(AlarmStorage::class.java)
+    private val factory by lazy {
+        PersistingContainerFactory(Calendars { Calendar.getInstance() }, storage, IdAllocator(folder.newFile(), Logger.create(), { 2 }), journal)
+    }
+
+    /** android.jar has no implementation of ContentValues, the columns put into each one are kept here */
+    private val columns = IdentityHashMap<ContentValues, MutableMap<String, Any?>>()
+
+    private fun contentValues(capacity: Int): ContentValues {
+        val values = LinkedHashMap<String, Any?>(capacity)
+        return mock(ContentValues::class.java, Answer<Any?> { invocation ->
+            if (invocation.method.name == "put") values[invocation.getArgument(0)] = invocation.getArgument(1)
+            null
+        }).also { columns[it] = values }
+    }
+
+    /** Counts the transactions of the factory and keeps the updated rows */
+    private class CountingStorage : AlarmStorage {
+        var transactions = 0
+        val updated = mutableListOf<Pair<Int, ContentValues>>()
+
+        override fun insert(rows: List<ContentValues>) {
+            transactions++
+        }
+
+        override fun update(rows: List<Pair<Int, ContentValues>>) {
+            transactions++
+            updated.addAll(rows)
+        }
+
+        override fun delete(id: Int) {
+            transactions++
+        }
+
+        override fun maxId(): Int = 0
+    }
+
+    /** Loads alarms like the query on startup does, so that they are persisted */
+    private fun load(vararg ids: Int) = factory.load(*ids)
+
+    private fun PersistingContainerFactory.load(vararg ids: Int): List<AlarmActiveRecord> {
+        return ids.map { id ->
+            val cursor = mock(Cursor::class.java)
+            `when`(cursor.getInt(Columns.ALARM_ID_INDEX)).thenReturn(id)
+            `when`(cursor.getInt(Columns.ALARM_ENABLED_INDEX)).thenReturn(1)
+            `when`(cursor.getInt(Columns.ALARM_HOUR_INDEX)).thenReturn(7)
+            `when`(cursor.getInt(Columns.ALARM_MINUTES_INDEX)).thenReturn(30)
+            `when`(cursor.getInt(Columns.ALARM_PREALARM_INDEX)).thenReturn(1)
+            `when`(cursor.getString(Columns.ALARM_STATE_INDEX)).thenReturn("DisabledState")
+            `when`(cursor.getLong(Columns.ALARM_TIME_INDEX)).thenReturn(1000L)
+            create(cursor)
+        }
+    }
+
+    private fun record(id: Int, state: String, millis: Long = 1000L) = AlarmActiveRecord(
+            nextTime = Calendar.getInstance().apply { timeInMillis = millis },
+            state = state,
+            persistence = factory,
+            alarmValue = AlarmData(id, true, 7, 30, true, Alarmtone.Silent(), false, "", DaysOfWeek.of(0)))
+
+    @Test
+    fun `nothing is written before flush`() {
+        load(1)
+        factory.persist(record(1, "SnoozedState"))
+        factory.persist(record(1, "FiredState"))
+        assertThat(journal.size()).isZero()
+    }
+
+    @Test
+    fun `only the latest version of a record is written on flush`() {
+        load(1, 2)
+        factory.persist(record(1, "SnoozedState", 2000))
+        factory.persist(record(2, "NormalSetState"))
+        factory.persist(record(1, "FiredState", 3000))
+        factory.flush()
+
+        val entries = journal.replay().associateBy { it.id }
+        assertThat(entries.keys).containsExactly(1, 2)
+        assertThat(entries.getValue(1).state).isEqualTo("FiredState")
+        assertThat(entries.getValue(1).nextTime).isEqualTo(3000L)
+        assertThat(entries.getValue(2).state).isEqualTo("NormalSetState")
+    }
+
+    @Test
+    fun `flush without changes writes nothing`() {
+        load(1)
+        factory.persist(record(1, "SnoozedState"))
+        factory.flush()
+        val size = journal.size()
+
+        factory.flush()
+        factory.persist(record(1, "SnoozedState"))
+        factory.flush()
+        assertThat(journal.size()).isEqualTo(size)
+    }
+
+    @Test
+    fun `deleted record is not written on flush`() {
+        load(1, 2)
+        val record = record(1, "SnoozedState")
+        factory.persist(record(2, "NormalSetState"))
+        factory.persist(record)
+        factory.delete(record)
+        factory.flush()
+
+        verify(storage).delete(1)
+        val entries = journal.replay().associateBy { it.id }
+        assertThat(entries.getValue(1).isDeleted).isTrue()
+        assertThat(entries.getValue(2).state).isEqualTo("NormalSetState")
+    }
+
+    @Test
+    fun `new alarm gets an id without a database round-trip`() {
+        val first = factory.create()
+        val second = factory.create()
+
+        assertThat(first.id).isEqualTo(3)
+        assertThat(second.id).isEqualTo(4)
+        verify(storage, never()).insert(anyList())
+        verify(storage, never()).update(anyList())
+    }
+
+    @Test
+    fun `without a journal only the changed columns are updated`() {
+        val storage = CountingStorage()
+        val factory = PersistingContainerFactory(Calendars { Calendar.getInstance() }, storage,
+                IdAllocator(folder.newFile(), Logger.create(), { 0 }), contentValues = ::contentValues)
+        val alarms = factory.load(*IntArray(50) { it }).toMutableList()
+        fun Int.calendar() = Calendar.getInstance().apply { timeInMillis = this@calendar.toLong() }
+        fun transition(change: (AlarmActiveRecord) -> AlarmActiveRecord) {
+            alarms.replaceAll { alarm -> change(alarm).also { factory.persist(it) } }
+            factory.flush()
+        }
+
+        // a day of every alarm: prealarm, fired, snoozed, dismissed, set again
+        transition { it.withState("PreAlarmSetState").withNextTime(2000.calendar()) }
+        transition { it.withState("PreAlarmFiredState").withNextTime(3000.calendar()) }
+        transition { it.withState("FiredState") }
+        transition { it.withState("SnoozedState").withNextTime(4000.calendar()) }
+        transition { it.withState("PreAlarmSetState").withNextTime(5000.calendar()) }
+        transition { it }
+
+        // one transaction per flush with changes and a row per alarm
+        assertThat(storage.transactions).isEqualTo(5)
+        assertThat(storage.updated).hasSize(5 * 50)
+        val rows = storage.updated.map { (id, values) -> id to columns.getValue(values) }
+        assertThat(rows.take(50).map { it.first }).containsExactlyElementsOf((0 until 50).toList())
+        assertThat(rows.first().second).isEqualTo(mapOf(Columns.ALARM_TIME to 2000L, Columns.STATE to "PreAlarmSetState"))
+        assertThat(rows[100].second).isEqualTo(mapOf(Columns.STATE to "FiredState"))
+        assertThat(rows.last().second).isEqualTo(mapOf(Columns.ALARM_TIME to 5000L, Columns.STATE to "PreAlarmSetState"))
+        // a full row would be 10 columns
+        assertThat(rows.sumBy { it.second.size }).isEqualTo(9 * 50)
+    }
+
+    @Test
+    fun `changes of nested messages are written in one transaction`() {
+        val storage = CountingStorage()
+        val factory = PersistingContainerFactory(Calendars { Calendar.getInstance() }, storage,
+                IdAllocator(folder.newFile(), Logger.create(), { 0 }), contentValues = ::contentValues)
+        val (first, second) = factory.load(1, 2)
+        lateinit var handler: IHandler
+        handler = BatchingHandlerFactory(ImmediateHandlerFactory(), mock(IAlarmsScheduler::class.java), factory)
+                .create(MessageHandler { msg ->
+                    when (msg.what()) {
+                        // a transition which sends more messages while it is handled
+                        1 -> {
+                            factory.persist(first.withState("FiredState"))
+                            handler.obtainMessage(2).send()
+                            handler.obtainMessage(3).send()
+                        }
+                        2 -> factory.persist(second.withState("FiredState"))
+                        3 -> factory.persist(first.withState("SnoozedState"))
+                    }
+                })
+        handler.obtainMessage(1).send()
+
+        assertThat(storage.transactions).isEqualTo(1)
+        assertThat(storage.updated.map { (id, values) -> id to columns.getValue(values).toMap() }).containsExactly(
+                1 to mapOf(Columns.STATE to "SnoozedState"),
+                2 to mapOf(Columns.STATE to "FiredState"))
+    }
+}
@@ -0,0 +1,80 @@
+package com.better.alarm.persistance
+
+import android.content.ContentValues
+import android.database.sqlite.SQLiteDatabase
+import android.database.sqlite.SQLiteStatement
+import org.assertj.core.api.Assertions.assertThat
+import org.junit.Test
+import org.mockito.ArgumentMatchers.anyString
+import org.mockito.Mockito.*
+
+class SQLiteAlarmStorageTest {
+    private val compiled = mutableListOf<String>()
+    private val statements = mutableListOf<SQLiteStatement>()
+    private val database = mock(SQLiteDatabase::class.java).also { db ->
+        `when`(db.compileStatement(anyString())).thenAnswer { invocation ->
+            compiled.add(invocation.getArgument(0))
+            mock(SQLiteStatement::class.java).also { statement ->
+                `when`(statement.executeInsert()).thenReturn(7L)
+                statements.add(statement)
+            }
+        }
+    }
+    private var notified = 0
+    private val storage = SQLiteAlarmStorage({ database }, { notified++ })
+
+    /** android.jar has no implementation of ContentValues */
+    private fun values(vararg values: Pair<String, Any?>): ContentValues {
+        val map = linkedMapOf(*values)
+        return mock(ContentValues::class.java).also { contentValues ->
+            `when`(contentValues.valueSet()).thenReturn(map.entries)
+            `when`(contentValues.get(anyString())).thenAnswer { map[it.getArgument(0)] }
+        }
+    }
+
+    @Test
+    fun `statement is compiled once per set of columns and reused`() {
+        storage.update(listOf(1 to values("state" to "SnoozedState", "alarmtime" to 1000L)))
+        storage.update(listOf(2 to values("state" to "FiredState", "alarmtime" to 2000L), 3 to values("enabled" to true)))
+
+        assertThat(compiled).containsExactly(
+                "UPDATE alarms SET state = ?, alarmtime = ? WHERE _id = ?",
+                "UPDATE alarms SET enabled = ? WHERE _id = ?")
+        val update = statements[0]
+        verify(update).bindString(1, "FiredState")
+        verify(update).bindLong(2, 2000L)
+        verify(update).bindLong(3, 2L)
+        verify(update, times(2)).executeUpdateDelete()
+        verify(statements[1]).bindLong(1, 1L)
+        verify(statements[1]).bindLong(2, 3L)
+    }
+
+    @Test
+    fun `rows are updated in one transaction and observers are notified once`() {
+        storage.update(listOf(1 to values("state" to "SnoozedState"), 2 to values("state" to "FiredState")))
+
+        val inOrder = inOrder(database, statements[0])
+        inOrder.verify(database).beginTransaction()
+        inOrder.verify(statements[0], times(2)).executeUpdateDelete()
+        inOrder.verify(database).setTransactionSuccessful()
+        inOrder.verify(database).endTransaction()
+        assertThat(notified).isEqualTo(1)
+    }
+
+    @Test
+    fun `rows are inserted in one transaction and delete reuses its statement`() {
+        storage.insert(listOf(values("_id" to 7, "alert" to null), values("_id" to 8, "alert" to "")))
+        storage.delete(7)
+        storage.delete(8)
+
+        assertThat(compiled).containsExactly(
+                "INSERT INTO alarms (_id, alert) VALUES (?, ?)",
+                "DELETE FROM alarms WHERE _id = ?")
+        verify(database).beginTransaction()
+        verify(statements[0], times(2)).executeInsert()
+        verify(statements[0]).bindNull(2)
+        verify(statements[0]).bindString(2, "")
+        verify(statements[1]).bindLong(1, 8L)
+        assertThat(notified).isEqualTo(3)
+    }
+}
@@ -0,0 +1,49 @@
+package com.better.alarm.statemachine
+
+import com.better.alarm.model.ImmediateHandlerFactory
+import org.assertj.core.api.Assertions.assertThat
+import org.junit.Test
+
+class MessageTest {
+    private val handler = ImmediateHandlerFactory().create(MessageHandler { })
+
+    @Test
+    fun `recycled messages are obtained again and reset`() {
+        val message = handler.obtainMessage(1).withArg1(2).withArg2(3).withObj("obj")
+        message.recycle()
+
+        val obtained = handler.obtainMessage(4)
+        assertThat(obtained).isSameAs(message)
+        assertThat(obtained.what()).isEqualTo(4)
+        assertThat(obtained.arg1()).isEqualTo(0)
+        assertThat(obtained.arg2()).isEqualTo(0)
+        assertThat(obtained.obj()).isNull()
+    }
+
+    @Test
+    fun `copy is not affected by recycling the original`() {
+        val message = handler.obtainMessage(1).withArg1(2).withArg2(3).withObj("obj")
+        val copy = message.copy()
+        message.recycle()
+
+        assertThat(copy).isNotSameAs(message)
+        assertThat(copy.toString()).isEqualTo("Message[1]{2, 3, obj}")
+    }
+
+    @Test
+    fun `dispatched messages are taken from the pool again`() {
+        val marker = Any()
+        val seen = mutableListOf<Message>()
+        val handler = ImmediateHandlerFactory().create(MessageHandler { msg -> seen.add(msg) })
+        // snooze to a time, fire, dismiss
+        handler.obtainMessage(3).withArg1(7).withArg2(30).withObj(marker).send()
+        handler.obtainMessage(6).send()
+        handler.obtainMessage(4).send()
+
+        // every message goes back to the pool after it has been handled, so the next one is the same object
+        assertThat(seen).hasSize(3)
+        assertThat(seen[1]).isSameAs(seen[0])
+        assertThat(seen[2]).isSameAs(seen[0])
+        assertThat(seen[2].obj()).isNull()
+    }
+}
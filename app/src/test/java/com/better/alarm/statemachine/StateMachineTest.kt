@@ -0,0 +1,195 @@
+package com.better.alarm.statemachine
+
+import com.better.alarm.logger.Logger
+import com.better.alarm.logger.SysoutLogWriter
+import com.better.alarm.model.ImmediateHandlerFactory
+import org.assertj.core.api.Assertions.assertThat
+import org.junit.Ignore
+import org.junit.Test
+
+class StateMachineTest {
+    private val events = mutableListOf<String>()
+    private var recording = true
+
+    /**
+     * Same hierarchy as AlarmCore.AlarmStateMachine:
+     *
+     * disabled, deleted, reschedule, enable
+     * enabled - set - preAlarmSet, normalSet
+     *         - snoozed, preAlarmFired, fired, preAlarmSnoozed
+     */
+    private inner class TestStateMachine(logger: Logger = Logger.create()) : StateMachine("test", ImmediateHandlerFactory(), logger, { it.toString() }) {
+        /** Root states transition to the state in the message, other states leave it to their parents */
+        inner class RecordingState(private val name: String, private val handles: Boolean = false) : State() {
+            override fun enter() {
+                if (recording) events.add("enter $name")
+            }
+
+            override fun exit() {
+                if (recording) events.add("exit $name")
+            }
+
+            override fun processMessage(msg: Message): Boolean {
+                if (handles) {
+                    transitionTo(msg.obj as IState)
+                }
+                return handles
+            }
+
+            override fun getName(): String = name
+        }
+
+        val disabled = RecordingState("disabled", handles = true)
+        val deleted = RecordingState("deleted", handles = true)
+        val reschedule = RecordingState("reschedule", handles = true)
+        val enable = RecordingState("enable", handles = true)
+        val enabled = RecordingState("enabled", handles = true)
+        val set = RecordingState("set")
+        val preAlarmSet = RecordingState("preAlarmSet")
+        val normalSet = RecordingState("normalSet")
+        val snoozed = RecordingState("snoozed")
+        val preAlarmFired = RecordingState("preAlarmFired")
+        val fired = RecordingState("fired")
+        val preAlarmSnoozed = RecordingState("preAlarmSnoozed")
+
+        init {
+            addState(disabled)
+            addState(enabled)
+            addState(deleted)
+            addState(reschedule)
+            addState(enable)
+            addState(set, enabled)
+            addState(preAlarmSet, set)
+            addState(normalSet, set)
+            addState(snoozed, enabled)
+            addState(preAlarmFired, enabled)
+            addState(fired, enabled)
+            addState(preAlarmSnoozed, enabled)
+            setInitialState(normalSet)
+        }
+
+        fun transition(to: IState) {
+            obtainMessage(0).withObj(to).send()
+        }
+    }
+
+    /** Sends a message while it processes one and records what the current message is afterwards */
+    private inner class NestingStateMachine : StateMachine("nesting", ImmediateHandlerFactory(), Logger.create(), { it.toString() }) {
+        val state = object : State() {
+            override fun processMessage(msg: Message): Boolean {
+                if (msg.what() == 1) {
+                    obtainMessage(2).withArg1(2).send()
+                    // takes the nested message from the pool again, it has been recycled
+                    val reused = obtainMessage(3).withArg1(3)
+                    events.add("after nested ${currentMessage.what()} ${currentMessage.arg1()}")
+                    reused.recycle()
+                } else {
+                    events.add("nested ${currentMessage.what()} ${currentMessage.arg1()}")
+                }
+                return true
+            }
+
+            override fun getName(): String = "state"
+        }
+
+        init {
+            addState(state)
+            setInitialState(state)
+        }
+    }
+
+    private fun started(): TestStateMachine {
+        return TestStateMachine().apply {
+            start()
+            events.clear()
+        }
+    }
+
+    @Test
+    fun `start enters the initial state and its parents from the top`() {
+        TestStateMachine().start()
+        assertThat(events).containsExactly("enter enabled", "enter set", "enter normalSet")
+    }
+
+    @Test
+    fun `resume does not enter states`() {
+        val sm = TestStateMachine()
+        sm.resume()
+        assertThat(events).isEmpty()
+        assertThat(sm.currentState).isSameAs(sm.normalSet)
+    }
+
+    @Test
+    fun `transition to a sibling exits and enters only the siblings`() {
+        val sm = started()
+        sm.transition(sm.preAlarmSet)
+        assertThat(events).containsExactly("exit normalSet", "enter preAlarmSet")
+    }
+
+    @Test
+    fun `transition across the hierarchy exits up to the common ancestor`() {
+        val sm = started()
+        sm.transition(sm.fired)
+        assertThat(events).containsExactly("exit normalSet", "exit set", "enter fired")
+        assertThat(sm.currentState).isSameAs(sm.fired)
+    }
+
+    @Test
+    fun `transition to another root exits all states`() {
+        val sm = started()
+        sm.transition(sm.disabled)
+        assertThat(events).containsExactly("exit normalSet", "exit set", "exit enabled", "enter disabled")
+    }
+
+    @Test
+    fun `transition from a root enters all parents`() {
+        val sm = started()
+        sm.transition(sm.disabled)
+        events.clear()
+        sm.transition(sm.preAlarmSet)
+        assertThat(events).containsExactly("exit disabled", "enter enabled", "enter set", "enter preAlarmSet")
+    }
+
+    @Test
+    fun `transition to the current state exits and enters it again`() {
+        val sm = started()
+        sm.transition(sm.normalSet)
+        assertThat(events).containsExactly("exit normalSet", "enter normalSet")
+    }
+
+    @Test
+    fun `transition to an active parent exits and enters the parent again`() {
+        val sm = started()
+        sm.transition(sm.set)
+        assertThat(events).containsExactly("exit normalSet", "exit set", "enter set")
+        assertThat(sm.currentState).isSameAs(sm.set)
+    }
+
+    @Test
+    fun `current message is restored after a nested send`() {
+        val sm = NestingStateMachine().apply { start() }
+        sm.obtainMessage(1).withArg1(1).send()
+        assertThat(events).containsExactly("nested 2 2", "after nested 1 1")
+    }
+
+    @Ignore("benchmark, run manually")
+    @Test
+    fun `transitions are cheap`() {
+        // debug logs look up the stack trace for the tag, which would be measured instead of the transitions
+        val sm = TestStateMachine(object : Logger() {
+            override fun d(message: Any?) {}
+        }).apply { start() }
+        val cycle = listOf(sm.preAlarmSet, sm.preAlarmFired, sm.preAlarmSnoozed, sm.fired, sm.snoozed, sm.normalSet)
+        val runs = 100000
+        var nanos = Long.MAX_VALUE
+        // best of a few rounds to leave out JIT warm-up and GC noise
+        recording = false
+        repeat(5) {
+            val start = System.nanoTime()
+            for (i in 0 until runs) sm.transition(cycle[i % cycle.size])
+            nanos = minOf(nanos, System.nanoTime() - start)
+        }
+        Logger.create().addLogWriter(SysoutLogWriter()).d("per transition: ${nanos / runs}ns")
+        assertThat(sm.currentState).isSameAs(cycle[(runs - 1) % cycle.size])
+    }
+}